@@ -0,0 +1,110 @@
+package com.example.goody.benchmarks
+
+import com.example.goody.contracts.Candy
+import com.example.goody.contracts.Goody
+import com.example.goody.contracts.issuedBy
+import net.corda.core.contracts.*
+import net.corda.core.crypto.SecureHash
+import net.corda.core.identity.CordaX500Name
+import net.corda.core.identity.Party
+import net.corda.core.transactions.LedgerTransaction
+import net.corda.core.utilities.OpaqueBytes
+import java.security.PublicKey
+
+/**
+ * Builds synthetic [LedgerTransaction]s containing [Goody.State]s for the benchmarks.
+ *
+ * Everything here is deterministic so that the same fixtures can be created when
+ * running against `corda-core-deterministic`, i.e. no key generation and no
+ * random hashes or salts.
+ */
+object GoodyTransactions {
+    private val CANDIES = listOf("NOUGAT", "TOFFEE", "FUDGE", "LIQUORICE", "MARZIPAN", "TRUFFLE", "PRALINE", "CARAMEL")
+    private val PRIVACY_SALT = PrivacySalt(ByteArray(32) { 1 })
+
+    val notary = party("Notary", 0)
+    private val owner = party("Owner", 1)
+    private val recipient = party("Recipient", 2)
+
+    /**
+     * A transfer of [states] inputs, spread evenly across [groups] issuer/candy
+     * groups, to the same number of outputs with a new owner.
+     */
+    fun move(states: Int, groups: Int): LedgerTransaction {
+        val tokens = tokens(groups)
+        val inputs = (0 until states).map { i -> Goody.State(owner, Amount(100L + i, tokens[i % tokens.size])) }
+        val outputs = inputs.map { it.copy(owner = recipient) }
+        val move = CommandWithParties(listOf(owner.owningKey), listOf(owner), Goody.Commands.Move())
+        return ledgerTransaction("move-$states-$groups", inputs, outputs, listOf(move))
+    }
+
+    /**
+     * An issuance of [states] new outputs, spread evenly across [groups]
+     * issuer/candy groups.
+     */
+    fun issue(states: Int, groups: Int): LedgerTransaction {
+        val tokens = tokens(groups)
+        val outputs = (0 until states).map { i -> Goody.State(owner, Amount(100L + i, tokens[i % tokens.size])) }
+        val issuerKeys = tokens.map { it.issuer.party.owningKey }.distinct()
+        val issue = CommandWithParties(issuerKeys, emptyList(), Goody.Commands.Issue())
+        return ledgerTransaction("issue-$states-$groups", emptyList(), outputs, listOf(issue))
+    }
+
+    /**
+     * Exits half of every one of [states] inputs, spread evenly across [groups]
+     * issuer/candy groups, returning the other half to the owner as change.
+     */
+    fun exit(states: Int, groups: Int): LedgerTransaction {
+        val tokens = tokens(groups)
+        val inputs = (0 until states).map { i -> Goody.State(owner, Amount(100L + 2 * i, tokens[i % tokens.size])) }
+        val outputs = inputs.map { it.copy(amount = Amount(it.amount.quantity / 2, it.amount.token)) }
+        val commands = mutableListOf<CommandWithParties<CommandData>>()
+        val allKeys = inputs.flatMap { it.exitKeys }.distinct()
+        commands += CommandWithParties(allKeys, emptyList(), Goody.Commands.Move())
+        inputs.groupBy { it.amount.token }.forEach { (token, group) ->
+            val exited = group.fold(0L) { total, state -> total + state.amount.quantity - state.amount.quantity / 2 }
+            commands += CommandWithParties(allKeys, emptyList(), Goody.Commands.Exit(Amount(exited, token)))
+        }
+        return ledgerTransaction("exit-$states-$groups", inputs, outputs, commands)
+    }
+
+    private fun tokens(groups: Int): List<Issued<Candy>> = (0 until groups).map { g ->
+        val issuer = party("Issuer${g / CANDIES.size}", 100 + g / CANDIES.size)
+        Candy(CANDIES[g % CANDIES.size]).issuedBy(issuer.ref(OpaqueBytes.of(g.toByte())))
+    }
+
+    @Suppress("DEPRECATION")
+    private fun ledgerTransaction(name: String,
+                                  inputs: List<Goody.State>,
+                                  outputs: List<Goody.State>,
+                                  commands: List<CommandWithParties<CommandData>>): LedgerTransaction {
+        val inputTxId = SecureHash.sha256("$name-inputs")
+        return LedgerTransaction(
+            inputs = inputs.mapIndexed { index, state -> StateAndRef(transactionState(state), StateRef(inputTxId, index)) },
+            outputs = outputs.map(::transactionState),
+            commands = commands,
+            attachments = emptyList(),
+            id = SecureHash.sha256(name),
+            notary = notary,
+            timeWindow = null,
+            privacySalt = PRIVACY_SALT
+        )
+    }
+
+    private fun transactionState(state: Goody.State) = TransactionState<ContractState>(state, Goody.PROGRAM_ID, notary)
+
+    private fun party(organisation: String, id: Int) = Party(CordaX500Name(organisation, "London", "GB"), BenchmarkKey(id))
+
+    /**
+     * Stand-in for a real public key: contract verification only ever
+     * compares keys, and real key generation is not deterministic.
+     */
+    private class BenchmarkKey(private val id: Int) : PublicKey {
+        override fun getAlgorithm(): String = "BENCHMARK"
+        override fun getFormat(): String = "RAW"
+        override fun getEncoded(): ByteArray = byteArrayOf((id ushr 24).toByte(), (id ushr 16).toByte(), (id ushr 8).toByte(), id.toByte())
+        override fun hashCode(): Int = id
+        override fun equals(other: Any?): Boolean = other is BenchmarkKey && other.id == id
+        override fun toString(): String = "BenchmarkKey[$id]"
+    }
+}
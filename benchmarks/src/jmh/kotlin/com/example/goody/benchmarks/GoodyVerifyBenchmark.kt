@@ -0,0 +1,45 @@
+package com.example.goody.benchmarks
+
+import com.example.goody.contracts.Goody
+import net.corda.core.transactions.LedgerTransaction
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures [Goody.verify] over synthetic transactions of increasing size,
+ * with the states spread across a number of issuer/candy groups. Each
+ * [shape] is written as `<states>x<groups>`, and there are never more
+ * groups than states.
+ *
+ * Allocation rates are reported by the GC profiler configured in `build.gradle`.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+open class GoodyVerifyBenchmark {
+    @Param("1x1", "10x1", "10x8", "100x1", "100x8", "100x64", "1000x1", "1000x8", "1000x64")
+    @JvmField
+    var shape: String = ""
+
+    private val contract = Goody()
+    private lateinit var moveTx: LedgerTransaction
+    private lateinit var issueTx: LedgerTransaction
+    private lateinit var exitTx: LedgerTransaction
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        val (states, groups) = shape.split('x').map(String::toInt)
+        moveTx = GoodyTransactions.move(states, groups)
+        issueTx = GoodyTransactions.issue(states, groups)
+        exitTx = GoodyTransactions.exit(states, groups)
+    }
+
+    @Benchmark
+    fun verifyMove() = contract.verify(moveTx)
+
+    @Benchmark
+    fun verifyIssue() = contract.verify(issueTx)
+
+    @Benchmark
+    fun verifyExit() = contract.verify(exitTx)
+}
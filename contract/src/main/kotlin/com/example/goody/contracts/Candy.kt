@@ -5,13 +5,17 @@ import net.corda.core.contracts.Amount
 import net.corda.core.contracts.Issued
 import net.corda.core.contracts.PartyAndReference
 import net.corda.core.serialization.CordaSerializable
+import java.util.*
 
 @CordaSerializable
 class Candy(@JsonProperty("type") type: String) {
-    val type: String = type.toUpperCase()
+    // toUpperCase() only allocates a new String if the type is not already upper case.
+    val type: String = type.toUpperCase(Locale.ROOT)
+    private val hash: Int = this.type.hashCode()
+
     override fun toString(): String = type
 
-    override fun hashCode(): Int = type.hashCode()
+    override fun hashCode(): Int = hash
     override fun equals(other: Any?): Boolean {
         if (this === other) {
             return true
@@ -20,7 +24,7 @@ class Candy(@JsonProperty("type") type: String) {
             return false
         }
         other as Candy
-        return type == other.type
+        return hash == other.hash && type == other.type
     }
 }
 
@@ -29,4 +33,4 @@ infix fun Candy.issuedBy(deposit: PartyAndReference) = Issued(deposit, this)
 
 operator fun Amount<Candy>.plus(extra: Long): Amount<Candy> = Amount(quantity + extra, token)
 operator fun Amount<Candy>.minus(less: Long): Amount<Candy> = Amount(quantity - less, token)
-operator fun Amount<Candy>.div(divisor: Long): Amount<Candy> = Amount(quantity / divisor, token)
\ No newline at end of file
+operator fun Amount<Candy>.div(divisor: Long): Amount<Candy> = Amount(quantity / divisor, token)
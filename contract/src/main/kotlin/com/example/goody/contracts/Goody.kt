@@ -1,10 +1,8 @@
 package com.example.goody.contracts
 
 import com.example.goody.schemas.GoodySchemaV1
+import com.example.goody.schemas.GoodySchemaV2
 import net.corda.core.contracts.*
-import net.corda.core.contracts.Amount.Companion.sumOrNull
-import net.corda.core.contracts.Amount.Companion.sumOrThrow
-import net.corda.core.contracts.Amount.Companion.sumOrZero
 import net.corda.core.crypto.toStringShort
 import net.corda.core.identity.AbstractParty
 import net.corda.core.identity.Party
@@ -44,55 +42,88 @@ class Goody : Contract {
                     issuerPartyHash = this.amount.token.issuer.party.owningKey.toStringShort(),
                     issuerRef = this.amount.token.issuer.reference.bytes
                 )
+                is GoodySchemaV2 -> GoodySchemaV2.PersistentGoodyState(
+                    owner = this.owner,
+                    count = this.amount.quantity,
+                    type = this.amount.token.product.type,
+                    issuerPartyHash = this.amount.token.issuer.party.owningKey.toStringShort(),
+                    issuerRef = this.amount.token.issuer.reference.bytes
+                )
                 else -> throw IllegalArgumentException("Unrecognised schema $schema")
             }
         }
 
-        override fun supportedSchemas(): List<MappedSchema> = listOf(GoodySchemaV1)
+        override fun supportedSchemas(): List<MappedSchema> = listOf(GoodySchemaV2)
     }
 
     override fun verify(tx: LedgerTransaction) {
-        val groups = tx.groupStates { it: Goody.State -> it.amount.token }
+        val groups = groupTotals(tx)
+        if (groups.isEmpty()) {
+            return
+        }
+
+        // Resolve the commands once for the whole transaction, rather than once per group.
+        val issueCommands = tx.commands.select<Commands.Issue>()
+        val issueCommand = issueCommands.firstOrNull()
+        if (issueCommand != null) {
+            for (group in groups.values) {
+                verifyIssueCommand(group, issueCommands.size, issueCommand)
+            }
+            return
+        }
 
-        for ((inputs, outputs, key) in groups) {
-            // Either inputs or outputs could be empty.
-            val issuer = key.issuer
-            val candy = key.product
+        for (group in groups.values) {
+            val issuer = group.token.issuer
+
+            // A mis-signed or duplicated exit command will just be ignored here and result in the exit amount being zero.
+            val exitQuantity = group.exitCommand()?.value?.amount?.quantity ?: 0L
 
             requireThat {
-                "there are no zero sized outputs" using outputs.none { it.amount.quantity == 0L }
+                "there is at least one candy input for this group" using (group.inputCount > 0)
+                "there are no zero sized inputs" using !group.hasZeroInput
+                "for reference ${issuer.reference} at issuer ${issuer.party} the amounts balance: ${group.inputQuantity} - $exitQuantity != ${group.outputQuantity}" using
+                        (group.inputQuantity == Math.addExact(group.outputQuantity, exitQuantity))
             }
+        }
 
-            val issueCommand = tx.commands.select<Commands.Issue>().firstOrNull()
-            if (issueCommand != null) {
-                verifyIssueCommand(inputs, outputs, tx, issueCommand, candy, issuer)
-            } else {
-                val inputAmount = inputs.sumCandyOrNull() ?: throw IllegalArgumentException("There is at least one candy input for this group")
-                val outputAmount = outputs.sumCandyOrZero(candy.issuedBy(issuer))
-
-                // If we want to remove candy from the ledger, that must be signed for by the issuer.
-                // A mis-signed or duplicated exit command will just be ignored here and result in the exit amount being zero.
-                val exitKeys: Set<PublicKey> = inputs.flatMap { it.exitKeys }.toSet()
-                val exitCommand = tx.commands.select<Commands.Exit>(parties = null, signers = exitKeys).singleOrNull { it.value.amount.token == key }
-                val amountExitingLedger = exitCommand?.value?.amount ?: Amount.zero(candy.issuedBy(issuer))
-
-                requireThat {
-                    "there are no zero sized inputs" using inputs.none { it.amount.quantity == 0L }
-                    "for reference ${issuer.reference} at issuer ${issuer.party} the amounts balance: ${inputAmount.quantity} - ${amountExitingLedger.quantity} != ${outputAmount.quantity}" using
-                            (inputAmount == outputAmount + amountExitingLedger)
-                }
-
-                verifyMoveCommand<Commands.Move>(inputs, tx.commands)
+        val moveCommand = tx.commands.requireSingleCommand<Commands.Move>()
+        val keysThatSigned = moveCommand.signers.toSet()
+        requireThat {
+            "the owning keys are a subset of the signing keys" using tx.inputs.all { input ->
+                val state = input.state.data
+                state !is State || state.owner.owningKey in keysThatSigned
             }
         }
     }
 
-    private fun verifyIssueCommand(inputs: List<State>,
-                                   outputs: List<State>,
-                                   tx: LedgerTransaction,
-                                   issueCommand: CommandWithParties<Commands.Issue>,
-                                   candy: Candy,
-                                   issuer: PartyAndReference) {
+    /**
+     * Scans the inputs, outputs and exit commands of [tx] exactly once, accumulating
+     * the totals for each [Issued] candy in the order that [LedgerTransaction.groupStates]
+     * would have returned them.
+     */
+    private fun groupTotals(tx: LedgerTransaction): Map<Issued<Candy>, GroupTotals> {
+        val groups = LinkedHashMap<Issued<Candy>, GroupTotals>()
+        for (input in tx.inputs) {
+            val state = input.state.data as? State ?: continue
+            groups.getOrPut(state.amount.token) { GroupTotals(state.amount.token) }.addInput(state)
+        }
+        for (output in tx.outputs) {
+            val state = output.data as? State ?: continue
+            groups.getOrPut(state.amount.token) { GroupTotals(state.amount.token) }.addOutput(state)
+        }
+        requireThat {
+            "there are no zero sized outputs" using groups.values.none(GroupTotals::hasZeroOutput)
+        }
+        for (command in tx.commands) {
+            val exit = command.value as? Commands.Exit ?: continue
+            groups[exit.amount.token]?.addExitCandidate(command)
+        }
+        return groups
+    }
+
+    private fun verifyIssueCommand(group: GroupTotals,
+                                   issueCommandCount: Int,
+                                   issueCommand: CommandWithParties<Commands.Issue>) {
         // If we have an issue command, perform special processing: the group is allowed to have no inputs,
         // and the output states must have a deposit reference owned by the signer.
         //
@@ -103,24 +134,88 @@ class Goody : Contract {
         // amounts! It is up to the recipient to decide if the backing party is trustworthy or not, via some
         // as-yet-unwritten identity service. See ADP-22 for discussion.
 
+        // A single issue command may issue many groups at once, e.g. different candy types, references
+        // and owners. Each group is checked independently, and so every issuer must have signed the command.
+
         // The grouping ensures that all outputs have the same deposit reference and candy type.
-        val inputAmount = inputs.sumCandyOrZero(candy.issuedBy(issuer))
-        val outputAmount = outputs.sumCandy()
-        val candyCommands = tx.commands.select<Commands.Issue>()
         requireThat {
-            "output states are issued by a command signer" using (issuer.party.owningKey in issueCommand.signers)
-            "output values sum to more than the inputs" using (outputAmount > inputAmount)
-            "there is only a single issue command" using (candyCommands.count() == 1)
+            "there are output states for this issuance" using (group.outputCount > 0)
+            "output states are issued by a command signer" using (group.token.issuer.party.owningKey in issueCommand.signers)
+            "output values sum to more than the inputs" using (group.outputQuantity > group.inputQuantity)
+            "there is only a single issue command" using (issueCommandCount == 1)
+        }
+    }
+
+    /**
+     * Running totals for a single [Issued] candy group within a transaction.
+     */
+    private class GroupTotals(val token: Issued<Candy>) {
+        var inputQuantity = 0L
+            private set
+        var outputQuantity = 0L
+            private set
+        var inputCount = 0
+            private set
+        var outputCount = 0
+            private set
+        var hasZeroInput = false
+            private set
+        var hasZeroOutput = false
+            private set
+
+        private val exitKeys = LinkedHashSet<PublicKey>()
+        private var exitCandidates: MutableList<CommandWithParties<CommandData>>? = null
+
+        fun addInput(state: State) {
+            val quantity = state.amount.quantity
+            inputQuantity = Math.addExact(inputQuantity, quantity)
+            hasZeroInput = hasZeroInput || quantity == 0L
+            exitKeys.addAll(state.exitKeys)
+            ++inputCount
+        }
+
+        fun addOutput(state: State) {
+            val quantity = state.amount.quantity
+            outputQuantity = Math.addExact(outputQuantity, quantity)
+            hasZeroOutput = hasZeroOutput || quantity == 0L
+            ++outputCount
+        }
+
+        fun addExitCandidate(command: CommandWithParties<CommandData>) {
+            (exitCandidates ?: ArrayList<CommandWithParties<CommandData>>(1).apply { exitCandidates = this }).add(command)
+        }
+
+        /**
+         * The single exit command for this group that has been signed by
+         * all of its inputs' exit keys, if there is one.
+         */
+        @Suppress("UNCHECKED_CAST")
+        fun exitCommand(): CommandWithParties<Commands.Exit>? {
+            val candidates = exitCandidates ?: return null
+            var found: CommandWithParties<CommandData>? = null
+            for (candidate in candidates) {
+                if (candidate.signers.containsAll(exitKeys)) {
+                    if (found != null) {
+                        return null
+                    }
+                    found = candidate
+                }
+            }
+            return found as CommandWithParties<Commands.Exit>?
         }
     }
 }
 
 /** Sums the candy states in the list, returning zero of the given candy+issuer if there is none. */
-fun Iterable<Goody.State>.sumCandyOrZero(candy: Issued<Candy>): Amount<Issued<Candy>> {
-    return filterIsInstance<Goody.State>().map(Goody.State::amount).sumOrZero(candy)
-}
+fun Iterable<Goody.State>.sumCandyOrZero(candy: Issued<Candy>): Amount<Issued<Candy>> = sumCandyOrNull() ?: Amount.zero(candy)
 
 /** Sums the candy states in the list, returning null if there is none. */
-fun Iterable<Goody.State>.sumCandyOrNull(): Amount<Issued<Candy>>? = filterIsInstance<Goody.State>().map(Goody.State::amount).sumOrNull()
+fun Iterable<Goody.State>.sumCandyOrNull(): Amount<Issued<Candy>>? {
+    var total: Amount<Issued<Candy>>? = null
+    for (state in this) {
+        total = total?.plus(state.amount) ?: state.amount
+    }
+    return total
+}
 
-fun Iterable<Goody.State>.sumCandy(): Amount<Issued<Candy>> = filterIsInstance<Goody.State>().map(Goody.State::amount).sumOrThrow()
+fun Iterable<Goody.State>.sumCandy(): Amount<Issued<Candy>> = sumCandyOrNull() ?: throw UnsupportedOperationException("Empty collection can't be reduced.")
@@ -0,0 +1,77 @@
+package com.example.goody.contracts
+
+import net.corda.core.contracts.*
+import net.corda.core.flows.FlowLogicRefFactory
+import net.corda.core.identity.Party
+import net.corda.core.transactions.LedgerTransaction
+import java.time.Duration
+import java.time.Instant
+
+/**
+ * A policy under which a node periodically checks how many unconsumed
+ * goodies of a candy it holds, and consolidates them once there are more
+ * than a threshold. Each check consumes the policy and reissues it with
+ * the time of its next check.
+ */
+class GoodyConsolidationPolicy : Contract {
+    companion object {
+        const val PROGRAM_ID = "com.example.goody.contracts.GoodyConsolidationPolicy"
+
+        /**
+         * The flow is named rather than referenced, because it lives in the flow module.
+         */
+        const val SCHEDULED_FLOW = "com.example.goody.flows.GoodyScheduledConsolidationFlow"
+    }
+
+    interface Commands : CommandData {
+        class Create : TypeOnlyCommandData()
+        class Reschedule : TypeOnlyCommandData()
+    }
+
+    data class State(
+        val owner: Party,
+        val candy: Candy,
+        val threshold: Int,
+        val maxInputsPerTransaction: Int,
+        val interval: Duration,
+        val nextCheck: Instant
+    ) : SchedulableState {
+        override val participants = listOf(owner)
+
+        override fun nextScheduledActivity(thisStateRef: StateRef, flowLogicRefFactory: FlowLogicRefFactory): ScheduledActivity? {
+            return ScheduledActivity(flowLogicRefFactory.create(SCHEDULED_FLOW, thisStateRef), nextCheck)
+        }
+
+        fun rescheduled(now: Instant): State = copy(nextCheck = maxOf(now, nextCheck).plus(interval))
+    }
+
+    override fun verify(tx: LedgerTransaction) {
+        val command = tx.commands.requireSingleCommand<Commands>()
+        val inputs = tx.inputsOfType<State>()
+        val outputs = tx.outputsOfType<State>()
+
+        when (command.value) {
+            is Commands.Create -> requireThat {
+                "no policy is consumed when creating one" using inputs.isEmpty()
+                "a single policy is created" using (outputs.size == 1)
+            }
+            is Commands.Reschedule -> requireThat {
+                "a single policy is consumed when rescheduling" using (inputs.size == 1)
+                "a single policy is created when rescheduling" using (outputs.size == 1)
+                val input = inputs.single()
+                val output = outputs.single()
+                "only the time of the next check changes" using (output == input.copy(nextCheck = output.nextCheck))
+                "the next check is later than the previous one" using output.nextCheck.isAfter(input.nextCheck)
+            }
+            else -> throw IllegalArgumentException("Unrecognised command ${command.value}")
+        }
+
+        val policy = outputs.single()
+        requireThat {
+            "the threshold is positive" using (policy.threshold > 0)
+            "at least two states are consolidated per transaction" using (policy.maxInputsPerTransaction > 1)
+            "the interval is positive" using !(policy.interval.isNegative || policy.interval.isZero)
+            "the owner signed the policy" using (policy.owner.owningKey in command.signers)
+        }
+    }
+}
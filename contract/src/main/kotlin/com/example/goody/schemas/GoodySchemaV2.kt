@@ -0,0 +1,58 @@
+package com.example.goody.schemas
+
+import net.corda.core.contracts.MAX_ISSUER_REF_SIZE
+import net.corda.core.identity.AbstractParty
+import net.corda.core.schemas.MappedSchema
+import net.corda.core.schemas.PersistentState
+import net.corda.core.serialization.CordaSerializable
+import net.corda.core.utilities.MAX_HASH_HEX_SIZE
+import org.hibernate.annotations.Type
+import javax.persistence.Column
+import javax.persistence.Entity
+import javax.persistence.Index
+import javax.persistence.Table
+
+/**
+ * Second version of the goody contract ORM schema. This maps the same fields as [GoodySchemaV1],
+ * but its indexes match how coin selection and balance queries use them:
+ *
+ * - `goody_v2_selection_idx` covers coin selection, which filters by candy type and issuer.
+ * - `goody_v2_owner_idx` covers the balance queries, which sum the count of each candy type
+ *   for an owner without needing to read the table itself.
+ *
+ * The [migrationResource] creates this table and copies any existing rows from [GoodySchemaV1]'s.
+ */
+@CordaSerializable
+object GoodySchemaV2 : MappedSchema(
+    schemaFamily = GoodySchema.javaClass, version = 2, mappedTypes = listOf(PersistentGoodyState::class.java)) {
+
+    override val migrationResource = "goody.changelog-master"
+
+    /** Candy types were limited to 10 characters by [GoodySchemaV1]. */
+    const val MAX_TYPE_LENGTH = 64
+
+    @Entity
+    @Table(name = "goody_states_v2",
+           indexes = [
+               Index(name = "goody_v2_selection_idx", columnList = "type,issuer_key_hash,issuer_ref"),
+               Index(name = "goody_v2_owner_idx", columnList = "owner_name,type,count")
+           ])
+    class PersistentGoodyState(
+        /** X500Name of owner party **/
+        @Column(name = "owner_name", nullable = false, updatable = false)
+        val owner: AbstractParty,
+
+        @Column(name = "count", nullable = false, updatable = false)
+        val count: Long,
+
+        @Column(name = "type", length = MAX_TYPE_LENGTH, nullable = false, updatable = false)
+        val type: String,
+
+        @Column(name = "issuer_key_hash", length = MAX_HASH_HEX_SIZE, nullable = false, updatable = false)
+        val issuerPartyHash: String,
+
+        @Column(name = "issuer_ref", length = MAX_ISSUER_REF_SIZE, nullable = false, updatable = false)
+        @Type(type = "corda-wrapper-binary")
+        val issuerRef: ByteArray
+    ) : PersistentState()
+}
@@ -24,4 +24,10 @@ class CandyTest {
     fun testToString() {
         assertEquals("NOUGAT", Candy("Nougat").toString())
     }
-}
\ No newline at end of file
+
+    @Test
+    fun testHashCode() {
+        assertEquals(Candy("NOUGAT").hashCode(), Candy("Nougat").hashCode())
+        assertEquals(Candy("NOUGAT").hashCode(), Candy("nougat").hashCode())
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.goody.load
+
+import java.io.File
+import java.util.*
+
+/**
+ * Which flows the load test should start, how many at once, and what it
+ * must achieve. Each setting is read from a `goody.load.*` system property.
+ */
+data class GoodyLoadConfig(
+    val parties: Int,
+    val flows: Int,
+    val concurrency: Int,
+    val mix: Map<GoodyLoadOperation, Int>,
+    val useIndex: Boolean,
+    val seed: Long,
+    val reportFile: File,
+    val maxFailureRate: Double,
+    val maxP99Millis: Double?,
+    val minThroughput: Double?
+) {
+    companion object {
+        fun fromSystemProperties() = GoodyLoadConfig(
+            parties = Integer.getInteger("goody.load.parties", 4),
+            flows = Integer.getInteger("goody.load.flows", 400),
+            concurrency = Integer.getInteger("goody.load.concurrency", 16),
+            mix = parseMix(System.getProperty("goody.load.mix", "issue:1,transfer:8,exit:1")),
+            useIndex = java.lang.Boolean.getBoolean("goody.load.index"),
+            seed = java.lang.Long.getLong("goody.load.seed", 1L),
+            reportFile = File(System.getProperty("goody.load.report", "build/reports/goody-load/report.json")),
+            maxFailureRate = System.getProperty("goody.load.maxFailureRate", "0.01").toDouble(),
+            maxP99Millis = System.getProperty("goody.load.maxP99Millis")?.toDouble(),
+            minThroughput = System.getProperty("goody.load.minThroughput")?.toDouble()
+        )
+
+        /**
+         * Parses weights such as `issue:1,transfer:8,exit:1`.
+         */
+        fun parseMix(text: String): Map<GoodyLoadOperation, Int> {
+            val mix = EnumMap<GoodyLoadOperation, Int>(GoodyLoadOperation::class.java)
+            for (entry in text.split(',').map(String::trim).filter(String::isNotEmpty)) {
+                val parts = entry.split(':')
+                require(parts.size == 2) { "Invalid load mix entry '$entry'" }
+                val operation = GoodyLoadOperation.valueOf(parts[0].trim().toUpperCase(Locale.ROOT))
+                val weight = parts[1].trim().toInt()
+                require(weight >= 0) { "Invalid weight for $operation" }
+                mix[operation] = weight
+            }
+            require(mix.values.sum() > 0) { "The load mix '$text' has no operations" }
+            return mix
+        }
+    }
+
+    init {
+        require(parties > 0) { "There must be at least one party" }
+        require(flows > 0) { "There must be at least one flow" }
+        require(concurrency > 0) { "The concurrency must be positive" }
+    }
+
+    /**
+     * Chooses the next operation at random, in proportion to its weight.
+     */
+    fun nextOperation(random: Random): GoodyLoadOperation {
+        var choice = random.nextInt(mix.values.sum())
+        for ((operation, weight) in mix) {
+            if (choice < weight) {
+                return operation
+            }
+            choice -= weight
+        }
+        throw IllegalStateException("No operation chosen")
+    }
+}
+
+enum class GoodyLoadOperation {
+    ISSUE,
+    TRANSFER,
+    EXIT
+}
@@ -0,0 +1,108 @@
+package com.example.goody.load
+
+import java.io.File
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Collects the latency of every completed flow, and the cause of every
+ * failed one, and summarises them as JSON.
+ */
+class GoodyLoadReport(private val config: GoodyLoadConfig) {
+    private companion object {
+        private val NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1).toDouble()
+        private val NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1).toDouble()
+
+        private inline fun <T> Iterable<T>.sumByLong(selector: (T) -> Long): Long = fold(0L) { total, item -> total + selector(item) }
+    }
+
+    private val latencies = EnumMap<GoodyLoadOperation, ConcurrentLinkedQueue<Long>>(GoodyLoadOperation::class.java).apply {
+        GoodyLoadOperation.values().forEach { put(it, ConcurrentLinkedQueue()) }
+    }
+    private val failures = EnumMap<GoodyLoadOperation, AtomicLong>(GoodyLoadOperation::class.java).apply {
+        GoodyLoadOperation.values().forEach { put(it, AtomicLong()) }
+    }
+    private val failureCauses = ConcurrentHashMap<String, AtomicLong>()
+
+    fun success(operation: GoodyLoadOperation, nanos: Long) {
+        latencies.getValue(operation) += nanos
+    }
+
+    fun failure(operation: GoodyLoadOperation, cause: Throwable) {
+        failures.getValue(operation).incrementAndGet()
+        failureCauses.computeIfAbsent(cause.javaClass.simpleName) { AtomicLong() }.incrementAndGet()
+    }
+
+    fun summarise(elapsedNanos: Long): Summary {
+        val operations = GoodyLoadOperation.values().associate { operation ->
+            operation to Stats.of(latencies.getValue(operation).toList(), failures.getValue(operation).get())
+        }
+        val total = Stats.of(latencies.values.flatten(), failures.values.sumByLong { it.get() })
+        val elapsedSeconds = elapsedNanos / NANOS_PER_SECOND
+        return Summary(elapsedSeconds, total.completed / elapsedSeconds, total, operations, failureCauses.mapValues { it.value.get() })
+    }
+
+    data class Summary(
+        val elapsedSeconds: Double,
+        val throughput: Double,
+        val total: Stats,
+        val operations: Map<GoodyLoadOperation, Stats>,
+        val failureCauses: Map<String, Long>
+    )
+
+    data class Stats(val completed: Long, val failed: Long, val p50Millis: Double, val p99Millis: Double, val maxMillis: Double) {
+        companion object {
+            fun of(nanos: List<Long>, failed: Long): Stats {
+                val sorted = nanos.sorted()
+                return Stats(sorted.size.toLong(), failed, percentile(sorted, 0.5), percentile(sorted, 0.99), percentile(sorted, 1.0))
+            }
+
+            /** The nearest-rank percentile, in milliseconds. */
+            private fun percentile(sorted: List<Long>, fraction: Double): Double {
+                if (sorted.isEmpty()) {
+                    return 0.0
+                }
+                val rank = Math.ceil(fraction * sorted.size).toInt().coerceIn(1, sorted.size)
+                return sorted[rank - 1] / NANOS_PER_MILLI
+            }
+        }
+
+        val failureRate: Double get() = if (completed + failed == 0L) 0.0 else failed.toDouble() / (completed + failed)
+    }
+
+    fun write(summary: Summary, file: File) {
+        file.absoluteFile.parentFile.mkdirs()
+        file.writeText(toJson(summary))
+    }
+
+    private fun toJson(summary: Summary): String {
+        val operations = summary.operations.entries.joinToString(",\n") { (operation, stats) ->
+            "    \"${operation.name.toLowerCase(Locale.ROOT)}\": ${statsJson(stats)}"
+        }
+        val failureCauses = summary.failureCauses.entries.joinToString(", ") { (cause, count) -> "\"$cause\": $count" }
+        return """
+            |{
+            |  "parties": ${config.parties},
+            |  "flows": ${config.flows},
+            |  "concurrency": ${config.concurrency},
+            |  "index": ${config.useIndex},
+            |  "seed": ${config.seed},
+            |  "elapsedSeconds": ${summary.elapsedSeconds},
+            |  "throughput": ${summary.throughput},
+            |  "total": ${statsJson(summary.total)},
+            |  "operations": {
+            |$operations
+            |  },
+            |  "failureCauses": { $failureCauses }
+            |}
+            |""".trimMargin()
+    }
+
+    private fun statsJson(stats: Stats): String {
+        return "{ \"completed\": ${stats.completed}, \"failed\": ${stats.failed}, \"failureRate\": ${stats.failureRate}, " +
+            "\"p50Millis\": ${stats.p50Millis}, \"p99Millis\": ${stats.p99Millis}, \"maxMillis\": ${stats.maxMillis} }"
+    }
+}
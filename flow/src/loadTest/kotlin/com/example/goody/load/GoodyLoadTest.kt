@@ -0,0 +1,128 @@
+package com.example.goody.load
+
+import com.example.goody.BOG_NAME
+import com.example.goody.GoodyIssuance
+import com.example.goody.contracts.Candy
+import com.example.goody.flows.GoodyBulkIssueFlow
+import com.example.goody.flows.GoodyExitFlow
+import com.example.goody.flows.GoodyIssueFlow
+import com.example.goody.flows.GoodyTransferFlow
+import net.corda.core.concurrent.CordaFuture
+import net.corda.core.contracts.Amount
+import net.corda.core.identity.CordaX500Name
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.core.utilities.getOrThrow
+import net.corda.core.utilities.loggerFor
+import net.corda.testing.core.singleIdentity
+import net.corda.testing.node.MockNetwork
+import net.corda.testing.node.StartedMockNode
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.util.*
+import java.util.concurrent.Semaphore
+
+/**
+ * Starts a mix of issue, transfer and exit flows concurrently on an issuer
+ * and [GoodyLoadConfig.parties] other nodes, and writes their throughput,
+ * latencies and failures to [GoodyLoadConfig.reportFile]. The test fails if
+ * these miss the thresholds in the [GoodyLoadConfig].
+ */
+class GoodyLoadTest {
+    private companion object {
+        private val log = loggerFor<GoodyLoadTest>()
+        private val NOUGAT = Candy("Nougat")
+        private val GOODY_REFERENCE = OpaqueBytes.of(0x4c)
+        private const val FUNDING_STATES = 32
+        private const val FUNDING_QUANTITY = 1000000L
+        private const val MAX_QUANTITY = 10
+    }
+
+    private val config = GoodyLoadConfig.fromSystemProperties()
+    private lateinit var mockNet: MockNetwork
+    private lateinit var issuerNode: StartedMockNode
+    private lateinit var partyNodes: List<StartedMockNode>
+
+    @Before
+    fun start() {
+        val cordappPackages = listOf("com.example.goody.contracts", "com.example.goody.schemas")
+        mockNet = MockNetwork(
+            cordappPackages = if (config.useIndex) cordappPackages + "com.example.goody.services" else cordappPackages,
+            threadPerNode = true,
+            networkSendManuallyPumped = false
+        )
+        issuerNode = mockNet.createPartyNode(BOG_NAME)
+        partyNodes = List(config.parties) { index -> mockNet.createPartyNode(CordaX500Name("Party$index", "London", "GB")) }
+
+        // Give every node many goodies, so that its concurrent flows can each spend different ones.
+        val issuances = (listOf(issuerNode) + partyNodes).flatMap { node ->
+            List(FUNDING_STATES) { GoodyIssuance(Amount(FUNDING_QUANTITY, NOUGAT), GOODY_REFERENCE, node.info.singleIdentity()) }
+        }
+        issuerNode.startFlow(GoodyBulkIssueFlow(issuances, mockNet.defaultNotaryIdentity)).getOrThrow()
+    }
+
+    @After
+    fun cleanUp() {
+        mockNet.stopNodes()
+    }
+
+    @Test
+    fun `run the load mix`() {
+        val random = Random(config.seed)
+        val report = GoodyLoadReport(config)
+        val permits = Semaphore(config.concurrency)
+
+        val start = System.nanoTime()
+        repeat(config.flows) {
+            val operation = config.nextOperation(random)
+            permits.acquire()
+            val flowStart = System.nanoTime()
+            try {
+                startFlow(operation, random).then { future ->
+                    try {
+                        future.getOrThrow()
+                        report.success(operation, System.nanoTime() - flowStart)
+                    } catch (e: Exception) {
+                        report.failure(operation, e)
+                    } finally {
+                        permits.release()
+                    }
+                }
+            } catch (e: Exception) {
+                report.failure(operation, e)
+                permits.release()
+            }
+        }
+        // Wait for the last flows to complete.
+        permits.acquire(config.concurrency)
+        val summary = report.summarise(System.nanoTime() - start)
+
+        report.write(summary, config.reportFile)
+        log.info("Load test report written to {}", config.reportFile.absolutePath)
+        log.info("{}", summary)
+
+        assertTrue("Failure rate ${summary.total.failureRate} exceeds ${config.maxFailureRate}: ${summary.failureCauses}",
+            summary.total.failureRate <= config.maxFailureRate)
+        config.maxP99Millis?.let { maxP99 ->
+            assertTrue("p99 latency ${summary.total.p99Millis}ms exceeds ${maxP99}ms", summary.total.p99Millis <= maxP99)
+        }
+        config.minThroughput?.let { minThroughput ->
+            assertTrue("Throughput ${summary.throughput}/s is below $minThroughput/s", summary.throughput >= minThroughput)
+        }
+    }
+
+    private fun startFlow(operation: GoodyLoadOperation, random: Random): CordaFuture<*> {
+        val amount = Amount(1L + random.nextInt(MAX_QUANTITY), NOUGAT)
+        return when (operation) {
+            GoodyLoadOperation.ISSUE -> issuerNode.startFlow(GoodyIssueFlow(amount, GOODY_REFERENCE, mockNet.defaultNotaryIdentity))
+            GoodyLoadOperation.EXIT -> issuerNode.startFlow(GoodyExitFlow(amount, GOODY_REFERENCE))
+            GoodyLoadOperation.TRANSFER -> {
+                val sender = partyNodes[random.nextInt(partyNodes.size)]
+                val recipients = (listOf(issuerNode) + partyNodes) - sender
+                val recipient = recipients[random.nextInt(recipients.size)]
+                sender.startFlow(GoodyTransferFlow(amount, recipient.info.singleIdentity()))
+            }
+        }
+    }
+}
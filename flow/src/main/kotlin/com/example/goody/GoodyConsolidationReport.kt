@@ -0,0 +1,14 @@
+package com.example.goody
+
+import net.corda.core.crypto.SecureHash
+import net.corda.core.serialization.CordaSerializable
+
+/**
+ * The outcome of consolidating our goodies.
+ *
+ * @property statesBefore how many of the goodies considered we held beforehand.
+ * @property statesAfter how many of these goodies we hold afterwards.
+ * @property transactionIds the consolidation transactions, one per chunk of merged goodies.
+ */
+@CordaSerializable
+data class GoodyConsolidationReport(val statesBefore: Int, val statesAfter: Int, val transactionIds: List<SecureHash>)
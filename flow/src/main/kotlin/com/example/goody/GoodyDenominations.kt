@@ -0,0 +1,89 @@
+package com.example.goody
+
+import net.corda.core.serialization.CordaSerializable
+
+/**
+ * How an issued amount is split into separate goodies. A single large goody
+ * can only be spent by one transfer at a time, whereas concurrent transfers
+ * can each spend a different one of many smaller goodies.
+ */
+@CordaSerializable
+data class GoodyDenominations(
+    val ladder: Ladder,
+    val buckets: Int,
+    val minimumPerDenomination: Int = DEFAULT_MINIMUM_PER_DENOMINATION
+) {
+    companion object {
+        const val MAX_BUCKETS = 1000
+        const val DEFAULT_MINIMUM_PER_DENOMINATION = 10
+        const val MAX_MINIMUM_PER_DENOMINATION = 100
+
+        @JvmField
+        val SINGLE = GoodyDenominations(Ladder.SINGLE, 1)
+
+        @JvmField
+        val POWERS_OF_TEN = GoodyDenominations(Ladder.POWERS_OF_TEN, 1)
+
+        @JvmStatic
+        fun powersOfTen(minimumPerDenomination: Int) = GoodyDenominations(Ladder.POWERS_OF_TEN, 1, minimumPerDenomination)
+
+        @JvmStatic
+        fun equalBuckets(buckets: Int) = GoodyDenominations(Ladder.EQUAL_BUCKETS, buckets)
+    }
+
+    @CordaSerializable
+    enum class Ladder {
+        /** One goody for the whole amount. */
+        SINGLE,
+        /**
+         * Goodies of each power of ten, with at least [minimumPerDenomination] of each
+         * but the largest where the amount allows, e.g. 1000 as 8 x 100, 19 x 10 and
+         * 10 x 1 rather than as a single 1000.
+         */
+        POWERS_OF_TEN,
+        /** [buckets] goodies whose sizes differ by at most one. */
+        EQUAL_BUCKETS
+    }
+
+    init {
+        require(buckets in 1..MAX_BUCKETS) { "The number of buckets must be between 1 and $MAX_BUCKETS" }
+        require(minimumPerDenomination in 1..MAX_MINIMUM_PER_DENOMINATION) {
+            "The minimum number of goodies per denomination must be between 1 and $MAX_MINIMUM_PER_DENOMINATION"
+        }
+    }
+
+    /**
+     * Splits [quantity] into the quantities of the goodies to issue, largest first.
+     */
+    fun split(quantity: Long): List<Long> {
+        require(quantity > 0) { "The quantity must be positive" }
+        return when (ladder) {
+            Ladder.SINGLE -> listOf(quantity)
+            Ladder.POWERS_OF_TEN -> {
+                val quantities = ArrayList<Long>()
+                var remaining = quantity
+                var denomination = 1L
+                while (remaining > 0) {
+                    // Take this denomination's digit, and then ten more at a time while
+                    // there are too few of them and enough remains for the larger ones.
+                    val units = remaining / denomination
+                    var count = units % 10
+                    while (count < minimumPerDenomination && units >= count + 10) {
+                        count += 10
+                    }
+                    repeat(count.toInt()) { quantities += denomination }
+                    remaining -= count * denomination
+                    denomination *= 10
+                }
+                quantities.asReversed()
+            }
+            Ladder.EQUAL_BUCKETS -> {
+                // Never issue an empty goody.
+                val count = minOf(buckets.toLong(), quantity).toInt()
+                val base = quantity / count
+                val larger = (quantity % count).toInt()
+                List(count) { index -> if (index < larger) base + 1 else base }
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.goody
+
+import com.example.goody.contracts.Candy
+import net.corda.core.contracts.Amount
+import net.corda.core.identity.Party
+import net.corda.core.serialization.CordaSerializable
+import net.corda.core.utilities.OpaqueBytes
+
+/**
+ * An amount of [Candy] to be issued under our [issuerRef] to [owner],
+ * or to ourselves if [owner] is `null`.
+ */
+@CordaSerializable
+data class GoodyIssuance(val amount: Amount<Candy>, val issuerRef: OpaqueBytes, val owner: Party? = null)
@@ -0,0 +1,131 @@
+package com.example.goody
+
+import com.codahale.metrics.MetricRegistry
+import com.codahale.metrics.Timer
+import com.codahale.metrics.jmx.JmxReporter
+import net.corda.core.serialization.CordaSerializable
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Timings and counts of what the Goody flows spend their time on. These are
+ * published over JMX in the `com.example.goody` domain, and can be fetched
+ * over RPC with [com.example.goody.flows.GoodyMetricsFlow].
+ *
+ * Flows refer to each [Step] by value rather than holding its [Timer], so
+ * that no metrics are ever captured in a flow's checkpoint.
+ */
+object GoodyMetrics {
+    const val JMX_DOMAIN = "com.example.goody"
+
+    enum class Step(val metricName: String) {
+        /** Choosing and soft-locking our goodies. */
+        SELECTION("selection"),
+        /** Assembling a transaction, including any coin selection. */
+        BUILDING("building"),
+        SIGNING("signing"),
+        /** Waiting for the notary to sign a transaction. */
+        NOTARISATION("notarisation"),
+        /** Recording a notarised transaction and sending it to its participants. */
+        FINALITY("finality")
+    }
+
+    private val registry = MetricRegistry()
+    private val steps = Step.values().associate { step -> step to registry.timer(MetricRegistry.name("steps", step.metricName)) }
+    private val insufficientGoodies = registry.counter("errors.insufficientGoodies")
+    private val notaryErrors = registry.counter("errors.notary")
+    private val selectionContention = registry.counter("errors.selectionContention")
+    private val notaryRetries = registry.counter("retries.notaryConflict")
+    private val spuriousLocksAvoided = registry.counter("selection.spuriousLocksAvoided")
+
+    init {
+        JmxReporter.forRegistry(registry).inDomain(JMX_DOMAIN).build().start()
+    }
+
+    fun record(step: Step, stopwatch: Stopwatch) {
+        stopwatch.elapsedNanos()?.let { steps.getValue(step).update(it, TimeUnit.NANOSECONDS) }
+    }
+
+    /**
+     * Records the end-to-end latency of a flow, from its construction until it completes.
+     */
+    fun recordFlow(flowName: String, stopwatch: Stopwatch) {
+        stopwatch.elapsedNanos()?.let { registry.timer(MetricRegistry.name("flows", flowName)).update(it, TimeUnit.NANOSECONDS) }
+    }
+
+    fun insufficientGoodies() = insufficientGoodies.inc()
+
+    fun notaryError() = notaryErrors.inc()
+
+    fun selectionContention() = selectionContention.inc()
+
+    fun notaryRetry() = notaryRetries.inc()
+
+    /**
+     * Counts goodies that selection did not lock because their notary differed
+     * from the one chosen for the transaction.
+     */
+    fun spuriousLocksAvoided(count: Long) = spuriousLocksAvoided.inc(count)
+
+    fun report(): Report {
+        return Report(
+            timers = registry.timers.mapValues { (_, timer) -> TimerStats.of(timer) },
+            counters = registry.counters.mapValues { (_, counter) -> counter.count },
+            ownerCache = GoodySelection.getInstance().ownerCacheStats()
+        )
+    }
+
+    /**
+     * Measures elapsed time with [System.nanoTime], which only means anything
+     * within the JVM that read it. A flow restored from its checkpoint after a
+     * restart carries its stopwatches into a new JVM, where they measure nothing
+     * and so are not recorded.
+     */
+    class Stopwatch private constructor(private val jvmId: UUID, private val startNanos: Long) {
+        companion object {
+            private val currentJvmId = UUID.randomUUID()
+
+            fun start() = Stopwatch(currentJvmId, System.nanoTime())
+        }
+
+        /**
+         * @return the nanoseconds since this stopwatch was started, or `null`
+         * if it was started in another JVM.
+         */
+        fun elapsedNanos(): Long? = if (jvmId == currentJvmId) System.nanoTime() - startNanos else null
+    }
+
+    @CordaSerializable
+    data class Report(val timers: Map<String, TimerStats>, val counters: Map<String, Long>, val ownerCache: OwningPartyCache.Stats)
+
+    /**
+     * A summary of a [Timer], with its rates per second and its latencies in milliseconds.
+     */
+    @CordaSerializable
+    data class TimerStats(
+        val count: Long,
+        val meanRate: Double,
+        val oneMinuteRate: Double,
+        val meanMillis: Double,
+        val p50Millis: Double,
+        val p99Millis: Double,
+        val maxMillis: Double
+    ) {
+        companion object {
+            private val NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1).toDouble()
+
+            fun of(timer: Timer): TimerStats {
+                val snapshot = timer.snapshot
+                return TimerStats(
+                    count = timer.count,
+                    meanRate = timer.meanRate,
+                    oneMinuteRate = timer.oneMinuteRate,
+                    meanMillis = snapshot.mean / NANOS_PER_MILLI,
+                    p50Millis = snapshot.median / NANOS_PER_MILLI,
+                    p99Millis = snapshot.get99thPercentile() / NANOS_PER_MILLI,
+                    maxMillis = snapshot.max / NANOS_PER_MILLI
+                )
+            }
+        }
+    }
+}
@@ -9,14 +9,12 @@ import net.corda.core.contracts.*
 import net.corda.core.identity.AbstractParty
 import net.corda.core.identity.Party
 import net.corda.core.node.ServiceHub
-import net.corda.core.node.services.queryBy
-import net.corda.core.node.services.vault.DEFAULT_PAGE_NUM
-import net.corda.core.node.services.vault.PageSpecification
-import net.corda.core.node.services.vault.QueryCriteria
 import net.corda.core.transactions.TransactionBuilder
 import java.security.PublicKey
 
 object GoodyOps {
+    private val wellKnownParties = WellKnownPartyCache()
+
     private fun deriveState(txState: TransactionState<Goody.State>, amount: Amount<Issued<Candy>>, owner: AbstractParty)
         = txState.copy(data = txState.data.copy(amount = amount, owner = owner))
 
@@ -36,58 +34,120 @@ object GoodyOps {
         return setOf(commandSigner)
     }
 
+    /**
+     * Issues [amount] to [owner] as several goodies, split according to [denominations].
+     */
+    fun generateIssue(tx: TransactionBuilder,
+                      amount: Amount<Issued<Candy>>,
+                      owner: AbstractParty,
+                      notary: Party,
+                      denominations: GoodyDenominations): Set<PublicKey> {
+        val states = denominations.split(amount.quantity).map { quantity -> Goody.State(owner, Amount(quantity, amount.token)) }
+        return generateIssue(tx, states, notary)
+    }
+
+    /**
+     * Issues all of [states] with a single [Goody.Commands.Issue] command,
+     * which must be signed by each of their issuers.
+     */
+    fun generateIssue(tx: TransactionBuilder, states: List<Goody.State>, notary: Party): Set<PublicKey> {
+        check(tx.inputStates().isEmpty())
+        check(tx.outputStates().map(TransactionState<*>::data).filterIsInstance<Goody.State>().isEmpty())
+        require(states.isNotEmpty()) { "There must be at least one state to issue." }
+        require(states.all { it.amount.quantity > 0 }) { "All issued states must have a positive amount." }
+        val commandSigners = states.mapTo(LinkedHashSet()) { it.amount.token.issuer.party.owningKey }
+        for (state in states) {
+            tx.addOutputState(TransactionState(state, Goody.PROGRAM_ID, notary))
+        }
+        tx.addCommand(Goody.Commands.Issue(), commandSigners.toList())
+        return commandSigners
+    }
+
     @Throws(InsufficientGoodiesException::class)
     @Suspendable
     fun generateTransfer(services: ServiceHub,
                          tx: TransactionBuilder,
                          recipient: Party,
-                         targetAmount: Amount<Candy>): Pair<TransactionBuilder, List<PublicKey>> {
+                         targetAmount: Amount<Candy>,
+                         strategy: GoodySelectionStrategy = GoodySelectionStrategy.OLDEST_FIRST,
+                         excludedRefs: Set<StateRef> = emptySet()): Pair<TransactionBuilder, List<PublicKey>> {
+        return generateBatchTransfer(services, tx, listOf(GoodyPayment(recipient, targetAmount)), strategy, excludedRefs)
+    }
+
+    /**
+     * Pays every one of [payments] from a single selection of our goodies. Each
+     * recipient receives one output per issuer of the goodies it is paid with,
+     * and any change is returned to the owner of the last goody spent.
+     *
+     * @param strategy how to choose which of our goodies to spend.
+     * @param excludedRefs goodies that must not be spent, e.g. because the
+     * notary has already seen them spent.
+     */
+    @Throws(InsufficientGoodiesException::class)
+    @Suspendable
+    fun generateBatchTransfer(services: ServiceHub,
+                              tx: TransactionBuilder,
+                              payments: List<GoodyPayment>,
+                              strategy: GoodySelectionStrategy = GoodySelectionStrategy.OLDEST_FIRST,
+                              excludedRefs: Set<StateRef> = emptySet()): Pair<TransactionBuilder, List<PublicKey>> {
+        require(payments.isNotEmpty()) { "There must be at least one payment." }
+        val candy = payments.first().amount.token
+        require(payments.all { it.amount.token == candy }) { "All payments must be of the same type of candy." }
+        require(payments.all { it.amount.quantity > 0 }) { "All payments must be for a positive amount of candy." }
+        val targetAmount = Amount(payments.fold(0L) { total, payment -> Math.addExact(total, payment.amount.quantity) }, candy)
+
         val goodySelection = GoodySelection.getInstance()
-        val availableGoodies = goodySelection.unconsumedGoodyStates(services, targetAmount, tx.lockId, tx.notary)
+        val availableGoodies = goodySelection.unconsumedGoodyStates(services, targetAmount, tx.lockId, tx.notary, strategy = strategy, excludedRefs = excludedRefs)
         if (availableGoodies.isEmpty()) {
-            throw InsufficientGoodiesException("No ${targetAmount.token.type} available")
+            throw InsufficientGoodiesException("No ${candy.type} available")
         }
 
         tx.notary = availableGoodies.first().state.notary
 
         val keysUsed = mutableSetOf<PublicKey>()
         val templateStates = mutableMapOf<PartyAndReference, TransactionState<Goody.State>>()
-        val totalCandies = mutableMapOf<PartyAndReference, Long>()
-        var totalSpent = 0L
+        val totalCandies = LinkedHashMap<Pair<Party, PartyAndReference>, Long>()
+        var paymentIndex = 0
+        var owed = payments[paymentIndex].amount.quantity
 
         for (input in availableGoodies) {
-            if (totalSpent >= targetAmount.quantity) {
+            if (paymentIndex == payments.size) {
                 break
             }
 
             val availableAmount = input.state.data.amount
             val issuer = availableAmount.token.issuer
             templateStates.putIfAbsent(issuer, input.state)
-
-            totalSpent += availableAmount.quantity
-            val change = if (totalSpent > targetAmount.quantity) totalSpent - targetAmount.quantity else 0L
-            val nextSpend = availableAmount.quantity - change
-            totalCandies.compute(issuer) { _, candies -> (candies ?: 0L) + nextSpend }
-
             keysUsed.add(input.state.data.owner.owningKey)
             tx.addInputState(input)
 
+            var unspent = availableAmount.quantity
+            while (unspent > 0 && paymentIndex < payments.size) {
+                val nextSpend = minOf(unspent, owed)
+                totalCandies.compute(Pair(payments[paymentIndex].recipient, issuer)) { _, candies -> (candies ?: 0L) + nextSpend }
+                unspent -= nextSpend
+                owed -= nextSpend
+                if (owed == 0L && ++paymentIndex < payments.size) {
+                    owed = payments[paymentIndex].amount.quantity
+                }
+            }
+
             // Any unspent change from this state is assigned back to its original owner
             // as another output state.
-            if (change > 0) {
-                val changeAmount = Amount(change, availableAmount.token)
+            if (unspent > 0) {
+                val changeAmount = Amount(unspent, availableAmount.token)
                 tx.addOutputState(deriveState(input.state, changeAmount, input.state.data.owner))
-                break
             }
         }
 
-        templateStates.map { entry ->
-            val outputState = deriveState(
-                entry.value,
-                Amount(totalCandies[entry.key] ?: 0, Issued(entry.key, targetAmount.token)),
-                recipient
-            )
-            tx.addOutputState(outputState)
+        if (paymentIndex < payments.size) {
+            throw InsufficientGoodiesException("Not enough ${candy.type} available")
+        }
+
+        for ((payee, quantity) in totalCandies) {
+            val (recipient, issuer) = payee
+            val templateState = templateStates[issuer] ?: throw IllegalStateException("No template state for issuer $issuer")
+            tx.addOutputState(deriveState(templateState, Amount(quantity, Issued(issuer, candy)), recipient))
         }
 
         return keysUsed.toList().let { keys ->
@@ -96,12 +156,37 @@ object GoodyOps {
         }
     }
 
+    /**
+     * Merges all of [inputs], which must be of the same issued candy and
+     * share the builder's notary, into a single state owned by [owner].
+     */
+    fun generateConsolidation(tx: TransactionBuilder,
+                              inputs: List<StateAndRef<Goody.State>>,
+                              owner: AbstractParty): List<PublicKey> {
+        require(inputs.size > 1) { "There must be at least two states to consolidate." }
+        val first = inputs.first().state
+        require(inputs.all { it.state.data.amount.token == first.data.amount.token }) { "All consolidated states must be of the same issued candy." }
+        require(inputs.all { it.state.notary == tx.notary }) { "All consolidated states must share the transaction's notary." }
+
+        var total = 0L
+        for (input in inputs) {
+            tx.addInputState(input)
+            total = Math.addExact(total, input.state.data.amount.quantity)
+        }
+        tx.addOutputState(deriveState(first, Amount(total, first.data.amount.token), owner))
+
+        val keys = inputs.map { it.state.data.owner.owningKey }.distinct()
+        tx.addCommand(generateMoveCommand(), keys)
+        return keys
+    }
+
     @Throws(InsufficientGoodiesException::class)
     @Suspendable
     fun generateExit(services: ServiceHub,
                      tx: TransactionBuilder,
                      issuer: PartyAndReference,
-                     targetAmount: Amount<Candy>): Pair<Set<Party>, Set<PublicKey>> {
+                     targetAmount: Amount<Candy>,
+                     excludedRefs: Set<StateRef> = emptySet()): Pair<Set<Party>, Set<PublicKey>> {
         val goodySelection = GoodySelection.getInstance()
         val availableGoodies = goodySelection.unconsumedGoodyStates(
             services,
@@ -109,7 +194,8 @@ object GoodyOps {
             tx.lockId,
             tx.notary,
             setOf(issuer.party),
-            setOf(issuer.reference)
+            setOf(issuer.reference),
+            excludedRefs = excludedRefs
         )
         if (availableGoodies.isEmpty()) {
             throw InsufficientGoodiesException("Not enough ${targetAmount.token.type} available")
@@ -117,26 +203,99 @@ object GoodyOps {
 
         val signers = generateExit(tx, targetAmount.issuedBy(issuer), availableGoodies)
 
-        // Work out who the owners of the burnt states were (specify page size so we don't silently drop any if > DEFAULT_PAGE_SIZE)
-        val inputStates = services.vaultService.queryBy<Goody.State>(QueryCriteria.VaultQueryCriteria(stateRefs = tx.inputStates()),
-            PageSpecification(pageNumber = DEFAULT_PAGE_NUM, pageSize = tx.inputStates().size)).states
+        return Pair(participantsOf(services, tx, availableGoodies), signers)
+    }
+
+    /**
+     * Works out who the owners of the burnt states were. The selected states
+     * already tell us this, so there is no need to query the vault for them.
+     */
+    private fun participantsOf(services: ServiceHub,
+                               tx: TransactionBuilder,
+                               selected: List<StateAndRef<Goody.State>>): Set<Party> {
+        val inputRefs = tx.inputStates().toSet()
+        return selected
+            .filter { it.ref in inputRefs }
+            .mapNotNullTo(LinkedHashSet()) { wellKnownParties.wellKnownParty(services, it.state.data.owner) }
+    }
+
+    /**
+     * Redeems all of [redemptions] of candy issued by [issuer] with a single
+     * transaction. This has one [Goody.Commands.Exit] command for each issued
+     * candy, and one [Goody.Commands.Move] command for them all. Every exited
+     * goody must share a notary.
+     */
+    @Throws(InsufficientGoodiesException::class)
+    @Suspendable
+    fun generateBulkExit(services: ServiceHub,
+                         tx: TransactionBuilder,
+                         issuer: Party,
+                         redemptions: List<GoodyRedemption>,
+                         excludedRefs: Set<StateRef> = emptySet()): Pair<Set<Party>, Set<PublicKey>> {
+        require(redemptions.isNotEmpty()) { "There must be at least one redemption." }
+        require(redemptions.all { it.amount.quantity > 0 }) { "All redemptions must be for a positive amount of candy." }
 
-        val participants: Set<Party> = inputStates
-            .mapNotNull { services.identityService.wellKnownPartyFromAnonymous(it.state.data.owner) }
-            .toSet()
+        // Combine any redemptions of the same issued candy.
+        val targets = LinkedHashMap<Issued<Candy>, Long>()
+        for (redemption in redemptions) {
+            val token = redemption.amount.token.issuedBy(issuer.ref(redemption.issuerRef))
+            targets.merge(token, redemption.amount.quantity) { total, quantity -> Math.addExact(total, quantity) }
+        }
 
-        return Pair(participants, signers)
+        val goodySelection = GoodySelection.getInstance()
+        val moveKeys = mutableSetOf<PublicKey>()
+        val exitKeys = mutableSetOf<PublicKey>()
+        val selected = mutableListOf<StateAndRef<Goody.State>>()
+        for ((token, quantity) in targets) {
+            // Once the first goodies are selected, tx.notary restricts the others to the same notary.
+            val availableGoodies = goodySelection.unconsumedGoodyStates(
+                services,
+                Amount(quantity, token.product),
+                tx.lockId,
+                tx.notary,
+                setOf(token.issuer.party),
+                setOf(token.issuer.reference),
+                excludedRefs = excludedRefs
+            )
+            if (availableGoodies.isEmpty()) {
+                throw InsufficientGoodiesException("Not enough ${token.product.type} available for reference ${token.issuer.reference}")
+            }
+            exitKeys += addExit(tx, Amount(quantity, token), availableGoodies, moveKeys)
+            selected += availableGoodies
+        }
+        tx.addCommand(generateMoveCommand(), moveKeys.toList())
+
+        return Pair(participantsOf(services, tx, selected), moveKeys + exitKeys)
     }
 
     private fun generateExit(tx: TransactionBuilder,
                              targetAmount: Amount<Issued<Candy>>,
                              available: List<StateAndRef<Goody.State>>): Set<PublicKey> {
+        val moveKeys = mutableSetOf<PublicKey>()
+        val exitKeys = addExit(tx, targetAmount, available, moveKeys)
+        tx.addCommand(generateMoveCommand(), moveKeys.toList())
+        return moveKeys + exitKeys
+    }
+
+    /**
+     * Adds enough of [available] to cover [targetAmount] as inputs, plus any
+     * change, and an [Goody.Commands.Exit] command for [targetAmount]. The
+     * inputs' exit keys are added to [moveKeys], because the caller must also
+     * add a single [Goody.Commands.Move] command for all of its exits.
+     *
+     * @return the keys which must sign the exit command.
+     */
+    private fun addExit(tx: TransactionBuilder,
+                        targetAmount: Amount<Issued<Candy>>,
+                        available: List<StateAndRef<Goody.State>>,
+                        moveKeys: MutableSet<PublicKey>): Set<PublicKey> {
         require(available.isNotEmpty()) { "List of states to exit cannot be empty." }
         var exitable = available.filter { (state) -> state.data.amount.token == targetAmount.token }
-        tx.notary = exitable.firstOrNull()?.state?.notary
+        if (tx.notary == null) {
+            tx.notary = exitable.firstOrNull()?.state?.notary
+        }
         exitable = exitable.filter { it.state.notary == tx.notary }
 
-        val moveKeys = mutableSetOf<PublicKey>()
         val exitKeys = mutableSetOf<PublicKey>()
         var totalExited = 0L
 
@@ -147,8 +306,7 @@ object GoodyOps {
 
             val exitableData = input.state.data
             totalExited += exitableData.amount.quantity
-            exitKeys += exitableData.owner.owningKey
-            moveKeys += exitableData.exitKeys
+            exitKeys += exitableData.exitKeys
             tx.addInputState(input)
 
             val change = if (totalExited > targetAmount.quantity) totalExited - targetAmount.quantity else 0L
@@ -158,10 +316,13 @@ object GoodyOps {
                 break
             }
         }
+        if (totalExited < targetAmount.quantity) {
+            throw InsufficientGoodiesException("Not enough ${targetAmount.token.product.type} available with notary ${tx.notary}")
+        }
 
-        tx.addCommand(generateMoveCommand(), moveKeys.toList())
+        moveKeys += exitKeys
         tx.addCommand(generateExitCommand(targetAmount), exitKeys.toList())
-        return moveKeys + exitKeys
+        return exitKeys
     }
 
     fun generateMoveCommand() = Goody.Commands.Move()
@@ -0,0 +1,12 @@
+package com.example.goody
+
+import com.example.goody.contracts.Candy
+import net.corda.core.contracts.Amount
+import net.corda.core.identity.Party
+import net.corda.core.serialization.CordaSerializable
+
+/**
+ * An amount of [Candy] to be transferred to [recipient].
+ */
+@CordaSerializable
+data class GoodyPayment(val recipient: Party, val amount: Amount<Candy>)
@@ -0,0 +1,12 @@
+package com.example.goody
+
+import com.example.goody.contracts.Candy
+import net.corda.core.contracts.Amount
+import net.corda.core.serialization.CordaSerializable
+import net.corda.core.utilities.OpaqueBytes
+
+/**
+ * An amount of [Candy] with issuer reference [issuerRef] to be removed from the ledger.
+ */
+@CordaSerializable
+data class GoodyRedemption(val issuerRef: OpaqueBytes, val amount: Amount<Candy>)
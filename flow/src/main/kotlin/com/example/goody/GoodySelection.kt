@@ -3,20 +3,68 @@ package com.example.goody
 import co.paralleluniverse.fibers.Suspendable
 import com.example.goody.contracts.Candy
 import com.example.goody.contracts.Goody
-import com.example.goody.schemas.GoodySchemaV1
+import com.example.goody.flows.GoodySelectionContentionException
+import com.example.goody.schemas.GoodySchemaV2
+import com.example.goody.services.GoodyUtxoIndex
 import net.corda.core.contracts.Amount
 import net.corda.core.contracts.StateAndRef
+import net.corda.core.contracts.StateRef
+import net.corda.core.crypto.toStringShort
+import net.corda.core.flows.FlowLogic
 import net.corda.core.identity.AbstractParty
 import net.corda.core.identity.Party
 import net.corda.core.node.ServiceHub
-import net.corda.core.node.services.vault.QueryCriteria
-import net.corda.core.node.services.vault.builder
+import net.corda.core.node.services.StatesNotAvailableException
+import net.corda.core.node.services.queryBy
+import net.corda.core.node.services.vault.*
+import net.corda.core.utilities.NonEmptySet
 import net.corda.core.utilities.OpaqueBytes
+import net.corda.core.utilities.loggerFor
+import java.time.Duration
 import java.util.*
 import java.util.concurrent.atomic.AtomicReference
 
-class GoodySelection {
+/**
+ * Selects and soft-locks enough of our unconsumed goodies to cover an amount.
+ *
+ * Concurrent selections for the same candy would otherwise all race for the
+ * oldest states. Instead, candidate states are partitioned into [stripes] by
+ * the hash of their [net.corda.core.contracts.StateRef], and each selection
+ * prefers the stripe chosen by its lock ID. Concurrent flows therefore mostly
+ * pick disjoint states, and a flow that loses a race for a state simply backs
+ * off and selects again. A flow that keeps losing these races fails with a
+ * [GoodySelectionContentionException].
+ *
+ * Only [GoodySelectionStrategy.OLDEST_FIRST] prefers a stripe. The other
+ * strategies choose by size, so their candidates are the smallest goodies
+ * that cover the amount by themselves and the largest of the rest, from
+ * every stripe, and they rely on backing off when they lose a race.
+ *
+ * If the node has installed the [GoodyUtxoIndex] then candidates are chosen
+ * from it instead of from the database, and the vault is only asked to
+ * soft-lock the chosen states.
+ */
+class GoodySelection(private val stripes: Int = DEFAULT_STRIPES) {
     companion object {
+        private val log = loggerFor<GoodySelection>()
+        private const val DEFAULT_STRIPES = 16
+        private const val MAX_RETRIES = 8
+        private const val RETRY_SLEEP_MILLIS = 100
+        private const val RETRY_CAP_MILLIS = 2000
+        private const val PAGE_SIZE = 200
+        private const val STRIPE_SEARCH_PAGES = 2
+
+        private val OLDEST_FIRST_ORDER = Sort(setOf(Sort.SortColumn(SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME), Sort.Direction.ASC)))
+        private val SMALLEST_FIRST_ORDER = quantityOrder(Sort.Direction.ASC)
+        private val LARGEST_FIRST_ORDER = quantityOrder(Sort.Direction.DESC)
+
+        /** Orders goodies by quantity, and then by [StateRef] so that pages do not overlap. */
+        private fun quantityOrder(direction: Sort.Direction) = Sort(listOf(
+            Sort.SortColumn(SortAttribute.Custom(GoodySchemaV2.PersistentGoodyState::class.java, "count"), direction),
+            Sort.SortColumn(SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_TXN_ID), Sort.Direction.ASC),
+            Sort.SortColumn(SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_INDEX), Sort.Direction.ASC)
+        ))
+
         private val instance = AtomicReference<GoodySelection>()
 
         fun getInstance(): GoodySelection {
@@ -24,15 +72,141 @@ class GoodySelection {
         }
     }
 
+    init {
+        require(stripes > 0) { "There must be at least one stripe" }
+    }
+
+    private val owningParties = OwningPartyCache()
+
+    /**
+     * How effective the cache of our keys' owning parties has been.
+     */
+    fun ownerCacheStats(): OwningPartyCache.Stats = owningParties.stats()
+
+    /**
+     * Selects and soft-locks our unconsumed goodies to cover [amount].
+     *
+     * @return the locked goodies, or an empty list if there are not enough.
+     * @throws GoodySelectionContentionException if concurrent flows kept
+     * locking the chosen goodies first.
+     */
     @Suspendable
     fun unconsumedGoodyStates(services: ServiceHub,
                               amount: Amount<Candy>,
                               lockId: UUID,
                               notary: Party? = null,
                               onlyFromIssuerParties: Set<AbstractParty>? = null,
-                              withIssuerRefs: Set<OpaqueBytes>? = null): List<StateAndRef<Goody.State>> {
-        val ourParties = services.keyManagementService.keys.map { key ->
-            services.identityService.partyFromKey(key) ?: throw IllegalStateException("Unable to resolve party from key")
+                              withIssuerRefs: Set<OpaqueBytes>? = null,
+                              strategy: GoodySelectionStrategy = GoodySelectionStrategy.OLDEST_FIRST,
+                              excludedRefs: Set<StateRef> = emptySet()): List<StateAndRef<Goody.State>> {
+        val stopwatch = GoodyMetrics.Stopwatch.start()
+        val index = GoodyUtxoIndex.find(services)
+        if (index != null) {
+            return selectFromIndex(services, index, amount, lockId, notary, onlyFromIssuerParties, withIssuerRefs, strategy, excludedRefs).also {
+                GoodyMetrics.record(GoodyMetrics.Step.SELECTION, stopwatch)
+            }
+        }
+
+        val criteria = selectionCriteria(services, amount, lockId, notary, onlyFromIssuerParties, withIssuerRefs)
+        val firstStripe = Math.floorMod(lockId.hashCode(), stripes)
+
+        for (retryCount in 1..MAX_RETRIES) {
+            val selected = attemptSelection(services, criteria, amount, lockId, strategy, excludedRefs, (firstStripe + retryCount - 1) % stripes)
+            if (selected != null) {
+                GoodyMetrics.record(GoodyMetrics.Step.SELECTION, stopwatch)
+                return selected
+            }
+            log.warn("Coin selection for {} lost a race for its states on attempt {}", amount, retryCount)
+            backOff(retryCount)
+        }
+        GoodyMetrics.record(GoodyMetrics.Step.SELECTION, stopwatch)
+        throw contention(amount, MAX_RETRIES)
+    }
+
+    @Suspendable
+    private fun selectFromIndex(services: ServiceHub,
+                                index: GoodyUtxoIndex,
+                                amount: Amount<Candy>,
+                                lockId: UUID,
+                                notary: Party?,
+                                onlyFromIssuerParties: Set<AbstractParty>?,
+                                withIssuerRefs: Set<OpaqueBytes>?,
+                                strategy: GoodySelectionStrategy,
+                                excludedRefs: Set<StateRef>): List<StateAndRef<Goody.State>> {
+        // The index does not know which goodies other flows have soft-locked, so
+        // remember those that we failed to lock, and choose others instead.
+        val unavailable = HashSet<StateRef>()
+        for (retryCount in 1..MAX_RETRIES) {
+            val selected = index.select(amount, notary, onlyFromIssuerParties, withIssuerRefs, strategy, lockId, excludedRefs + unavailable)
+            if (selected.isEmpty()) {
+                // Other flows may yet release the goodies that they have locked.
+                if (unavailable.isNotEmpty()) {
+                    throw contention(amount, retryCount)
+                }
+                return selected
+            }
+            val refs = selected.map { it.ref }
+            try {
+                services.vaultService.softLockReserve(lockId, NonEmptySet.copyOf(refs))
+                return selected
+            } catch (e: StatesNotAvailableException) {
+                index.release(lockId, refs)
+                log.warn("Indexed coin selection for {} lost a race for its states on attempt {}", amount, retryCount)
+                if (unavailable.addAll(unavailableRefs(services, refs, lockId))) {
+                    continue
+                }
+            }
+            backOff(retryCount)
+        }
+        throw contention(amount, MAX_RETRIES)
+    }
+
+    /**
+     * Returns those of [refs] that are soft-locked by a lock ID other than
+     * [lockId], or that have been consumed.
+     */
+    private fun unavailableRefs(services: ServiceHub, refs: List<StateRef>, lockId: UUID): Set<StateRef> {
+        val criteria = QueryCriteria.VaultQueryCriteria(
+            stateRefs = refs,
+            softLockingCondition = QueryCriteria.SoftLockingCondition(QueryCriteria.SoftLockingType.UNLOCKED_AND_SPECIFIED, listOf(lockId))
+        )
+        val available = services.vaultService.queryBy<Goody.State>(criteria, PageSpecification(DEFAULT_PAGE_NUM, refs.size)).states.map { it.ref }
+        return refs.toSet() - available
+    }
+
+    private fun contention(amount: Amount<Candy>, attempts: Int): GoodySelectionContentionException {
+        log.warn("Unable to lock enough goodies for {} after {} attempts", amount, attempts)
+        GoodyMetrics.selectionContention()
+        return GoodySelectionContentionException("Concurrent flows kept locking the ${amount.token.type} chosen, please retry")
+    }
+
+    /**
+     * Releases the goodies that [lockId] has soft-locked, and any that the
+     * [GoodyUtxoIndex] has leased to it.
+     */
+    fun release(services: ServiceHub, lockId: UUID) {
+        services.vaultService.softLockRelease(lockId)
+        GoodyUtxoIndex.find(services)?.release(lockId)
+    }
+
+    @Suspendable
+    private fun backOff(retryCount: Int) {
+        if (retryCount != MAX_RETRIES) {
+            val durationMillis = (minOf(RETRY_SLEEP_MILLIS shl retryCount, RETRY_CAP_MILLIS / 2) * (1.0 + Math.random())).toLong()
+            FlowLogic.sleep(Duration.ofMillis(durationMillis))
+        }
+    }
+
+    private fun selectionCriteria(services: ServiceHub,
+                                  amount: Amount<Candy>,
+                                  lockId: UUID,
+                                  notary: Party?,
+                                  onlyFromIssuerParties: Set<AbstractParty>?,
+                                  withIssuerRefs: Set<OpaqueBytes>?): QueryCriteria {
+        val ourParties = owningParties.ourParties(services)
+        if (log.isDebugEnabled) {
+            val stats = owningParties.stats()
+            log.debug("Owning party cache: hit rate={}, saved {}us in total", stats.hitRate, stats.estimatedNanosSaved / 1000)
         }
         val fungibleCriteria = QueryCriteria.FungibleAssetQueryCriteria(
             owner = ourParties,
@@ -41,13 +215,147 @@ class GoodySelection {
         )
 
         val notaries = if (notary != null) listOf(notary) else services.networkMapCache.notaryIdentities
-        val vaultCriteria = QueryCriteria.VaultQueryCriteria(notary = notaries)
+        val vaultCriteria = QueryCriteria.VaultQueryCriteria(
+            notary = notaries,
+            softLockingCondition = QueryCriteria.SoftLockingCondition(QueryCriteria.SoftLockingType.UNLOCKED_AND_SPECIFIED, listOf(lockId))
+        )
+
+        // Also filter goody_states_v2 by issuer, so that its selection index can be used.
+        val logicalExpression = builder { GoodySchemaV2.PersistentGoodyState::type.equal(amount.token.type) }
+        var goodyCriteria: QueryCriteria = QueryCriteria.VaultCustomQueryCriteria(logicalExpression)
+        if (onlyFromIssuerParties != null) {
+            val issuerHashes = onlyFromIssuerParties.map { it.owningKey.toStringShort() }
+            goodyCriteria = goodyCriteria.and(QueryCriteria.VaultCustomQueryCriteria(builder { GoodySchemaV2.PersistentGoodyState::issuerPartyHash.`in`(issuerHashes) }))
+        }
+
+        return fungibleCriteria.and(vaultCriteria).and(goodyCriteria)
+    }
+
+    /**
+     * Chooses states to cover [amount] and tries to soft-lock them. Oldest
+     * first selection prefers the states in [preferredStripe].
+     *
+     * @return the locked states, an empty list if there are not enough unlocked
+     * states to cover [amount], or `null` if another flow locked one of the
+     * chosen states first.
+     */
+    private fun attemptSelection(services: ServiceHub,
+                                 criteria: QueryCriteria,
+                                 amount: Amount<Candy>,
+                                 lockId: UUID,
+                                 strategy: GoodySelectionStrategy,
+                                 excludedRefs: Set<StateRef>,
+                                 preferredStripe: Int): List<StateAndRef<Goody.State>>? {
+        val candidates = Candidates(amount.quantity, preferredStripe)
+        val selected = if (strategy == GoodySelectionStrategy.OLDEST_FIRST) {
+            addPages(services, criteria, OLDEST_FIRST_ORDER, excludedRefs, candidates) {
+                // Stop once one notary's goodies in the preferred stripe can cover the amount,
+                // or once one notary's goodies in all stripes can and we have searched far
+                // enough for the former.
+                it.preferredCovered || (it.covered && it.pages >= STRIPE_SEARCH_PAGES)
+            }
+
+            // Apply the strategy to the preferred stripe by itself first, and then
+            // to all of the stripes, visiting the preferred stripe first. Only the
+            // goodies of a single notary are chosen, so that none need be locked
+            // only to be left out of the transaction.
+            strategy.selectWithOneNotary(candidates.preferred, amount.quantity).takeIf(List<*>::isNotEmpty)
+                ?: strategy.selectWithOneNotary(candidates.all, amount.quantity)
+        } else {
+            var largestCriteria = criteria
+            if (strategy != GoodySelectionStrategy.LARGEST_FIRST) {
+                // A single goody that covers the amount leaves the least change, so
+                // find the smallest of these, and then the largest of the rest.
+                val covering = QueryCriteria.VaultCustomQueryCriteria(builder { GoodySchemaV2.PersistentGoodyState::count.greaterThanOrEqual(amount.quantity) })
+                addPages(services, criteria.and(covering), SMALLEST_FIRST_ORDER, excludedRefs, candidates, maxPages = 1)
+                largestCriteria = criteria.and(QueryCriteria.VaultCustomQueryCriteria(builder { GoodySchemaV2.PersistentGoodyState::count.lessThan(amount.quantity) }))
+            }
+            // Smaller goodies would only add inputs once one notary's goodies can cover the amount.
+            addPages(services, largestCriteria, LARGEST_FIRST_ORDER, excludedRefs, candidates) { it.covered }
+            strategy.selectWithOneNotary(candidates.all, amount.quantity)
+        }
+        log.debug("Found {} candidate goodies for {}", candidates.count, amount)
+        if (selected.isEmpty()) {
+            return emptyList()
+        }
 
-        val logicalExpression = builder { GoodySchemaV1.PersistentGoodyState::type.equal(amount.token.type) }
-        val goodyCriteria = QueryCriteria.VaultCustomQueryCriteria(logicalExpression)
+        return try {
+            services.vaultService.softLockReserve(lockId, NonEmptySet.copyOf(selected.map { it.ref }))
+            selected
+        } catch (e: StatesNotAvailableException) {
+            null
+        }
+    }
+
+    /**
+     * Adds pages of the states that match [criteria], in the given [order]
+     * and skipping any [excludedRefs], to the [candidates]. Paging stops at
+     * the last state, after [maxPages] pages, or once [enough] is true. A
+     * fragmented vault may need many pages before then.
+     */
+    private fun addPages(services: ServiceHub,
+                         criteria: QueryCriteria,
+                         order: Sort,
+                         excludedRefs: Set<StateRef>,
+                         candidates: Candidates,
+                         maxPages: Int = Int.MAX_VALUE,
+                         enough: (Candidates) -> Boolean = { false }) {
+        var pageNumber = DEFAULT_PAGE_NUM
+        var read = 0L
+        while (true) {
+            val page = services.vaultService.queryBy<Goody.State>(criteria, PageSpecification(pageNumber, PAGE_SIZE), order)
+            page.states.filter { it.ref !in excludedRefs }.forEach(candidates::add)
+            ++candidates.pages
+            read += page.states.size
+            if (page.states.size < PAGE_SIZE || read >= page.totalStatesAvailable || pageNumber >= maxPages || enough(candidates)) {
+                return
+            }
+            ++pageNumber
+        }
+    }
+
+    /**
+     * The candidate states found so far, partitioned by stripe. Only one
+     * notary's goodies can be spent together, so their totals are kept per
+     * notary.
+     */
+    private inner class Candidates(private val target: Long, private val preferredStripe: Int) {
+        private val byStripe = List(stripes) { ArrayList<StateAndRef<Goody.State>>() }
+        private val totals = HashMap<Party, Long>()
+        private val preferredTotals = HashMap<Party, Long>()
 
-        val fullCriteria = fungibleCriteria.and(vaultCriteria).and(goodyCriteria)
+        /** Whether one notary's candidates can cover the target. */
+        var covered = false
+            private set
 
-        return services.vaultService.tryLockFungibleStatesForSpending(lockId, fullCriteria, amount, Goody.State::class.java)
+        /** Whether one notary's candidates in the preferred stripe can cover the target. */
+        var preferredCovered = false
+            private set
+
+        var count = 0
+            private set
+
+        var pages = 0
+
+        val preferred: List<StateAndRef<Goody.State>> get() = byStripe[preferredStripe]
+
+        /** Every candidate, visiting the preferred stripe first. */
+        val all: List<StateAndRef<Goody.State>> get() = (0 until stripes).flatMap { offset -> byStripe[(preferredStripe + offset) % stripes] }
+
+        fun add(state: StateAndRef<Goody.State>) {
+            val stripe = Math.floorMod(state.ref.hashCode(), stripes)
+            byStripe[stripe] += state
+            ++count
+            val notary = state.state.notary
+            val quantity = state.state.data.amount.quantity
+            val total = (totals[notary] ?: 0L) + quantity
+            totals[notary] = total
+            covered = covered || total >= target
+            if (stripe == preferredStripe) {
+                val preferredTotal = (preferredTotals[notary] ?: 0L) + quantity
+                preferredTotals[notary] = preferredTotal
+                preferredCovered = preferredCovered || preferredTotal >= target
+            }
+        }
     }
 }
@@ -0,0 +1,164 @@
+package com.example.goody
+
+import com.example.goody.contracts.Goody
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.serialization.CordaSerializable
+
+/**
+ * How [GoodySelection] chooses which of the candidate goodies to spend.
+ *
+ * Every strategy returns either a list of candidates whose total covers the
+ * target quantity, or an empty list if the candidates cannot cover it.
+ */
+@CordaSerializable
+enum class GoodySelectionStrategy {
+    /**
+     * Spends goodies in the order they were recorded in the vault.
+     */
+    OLDEST_FIRST {
+        override fun select(candidates: List<StateAndRef<Goody.State>>, target: Long) = accumulate(candidates, target)
+    },
+
+    /**
+     * Spends the largest goodies first, so that as few inputs as possible are used.
+     */
+    LARGEST_FIRST {
+        override fun select(candidates: List<StateAndRef<Goody.State>>, target: Long) = accumulate(candidates.sortedByDescending(::quantityOf), target)
+    },
+
+    /**
+     * Spends the smallest single goody that covers the target, if there is one.
+     * Otherwise spends the largest goodies first, but replaces the last of these
+     * with the smallest goody that still covers the target, to minimise change.
+     */
+    BEST_FIT {
+        override fun select(candidates: List<StateAndRef<Goody.State>>, target: Long): List<StateAndRef<Goody.State>> {
+            val smallestCovering = candidates.filter { quantityOf(it) >= target }.minBy(::quantityOf)
+            if (smallestCovering != null) {
+                return listOf(smallestCovering)
+            }
+
+            val largestFirst = candidates.sortedByDescending(::quantityOf)
+            val selected = accumulate(largestFirst, target)
+            if (selected.size < 2) {
+                return selected
+            }
+            val last = selected.last()
+            val remainder = target - selected.subList(0, selected.size - 1).fold(0L) { total, state -> total + quantityOf(state) }
+            val replacement = largestFirst.subList(selected.size, largestFirst.size)
+                .filter { quantityOf(it) >= remainder }
+                .minBy(::quantityOf) ?: return selected
+            return if (quantityOf(replacement) < quantityOf(last)) selected.dropLast(1) + replacement else selected
+        }
+    },
+
+    /**
+     * Spends a combination of goodies that sums to exactly the target, so
+     * that no change is needed, if a bounded search can find one. Otherwise
+     * behaves like [BEST_FIT].
+     */
+    EXACT_MATCH_PREFERRED {
+        override fun select(candidates: List<StateAndRef<Goody.State>>, target: Long): List<StateAndRef<Goody.State>> {
+            val exact = candidates.firstOrNull { quantityOf(it) == target }
+            if (exact != null) {
+                return listOf(exact)
+            }
+            val largestFirst = candidates.filter { quantityOf(it) < target }.sortedByDescending(::quantityOf)
+            return ExactMatchSearch(largestFirst, target).find() ?: BEST_FIT.select(candidates, target)
+        }
+    };
+
+    abstract fun select(candidates: List<StateAndRef<Goody.State>>, target: Long): List<StateAndRef<Goody.State>>
+
+    /**
+     * Applies this strategy to each notary's candidates separately, because a
+     * transaction's inputs must share a notary, and returns the selection with
+     * the fewest inputs. Applying it to every notary's candidates at once would
+     * choose goodies that the transaction would then have to leave locked but
+     * unused. The candidates passed over on other notaries are counted by
+     * [GoodyMetrics.spuriousLocksAvoided].
+     */
+    fun selectWithOneNotary(candidates: List<StateAndRef<Goody.State>>, target: Long): List<StateAndRef<Goody.State>> {
+        val byNotary = candidates.groupBy { it.state.notary }
+        if (byNotary.size < 2) {
+            return select(candidates, target)
+        }
+        val selected = byNotary.values.map { select(it, target) }.filter(List<*>::isNotEmpty).minBy(List<*>::size) ?: return emptyList()
+        val notary = selected.first().state.notary
+        GoodyMetrics.spuriousLocksAvoided((candidates.size - byNotary.getValue(notary).size).toLong())
+        return selected
+    }
+
+    /**
+     * Depth-first search for a subset of [candidates], which must be sorted
+     * largest first, that sums to exactly [target]. The search gives up after
+     * [MAX_STEPS] steps, or rather than use more than [MAX_INPUTS] inputs.
+     */
+    private class ExactMatchSearch(private val candidates: List<StateAndRef<Goody.State>>, private val target: Long) {
+        private companion object {
+            private const val MAX_STEPS = 100000
+            private const val MAX_INPUTS = 32
+        }
+
+        private val quantities = LongArray(candidates.size) { quantityOf(candidates[it]) }
+        private val remainingTotals = LongArray(candidates.size + 1).also { totals ->
+            for (index in candidates.size - 1 downTo 0) {
+                totals[index] = totals[index + 1] + quantities[index]
+            }
+        }
+        private val chosen = IntArray(MAX_INPUTS)
+        private var depth = 0
+        private var steps = 0
+
+        fun find(): List<StateAndRef<Goody.State>>? {
+            return if (search(0, target)) (0 until depth).map { candidates[chosen[it]] } else null
+        }
+
+        private fun search(start: Int, outstanding: Long): Boolean {
+            if (outstanding == 0L) {
+                return true
+            }
+            if (depth == MAX_INPUTS) {
+                return false
+            }
+            var index = start
+            while (index < quantities.size) {
+                if (++steps > MAX_STEPS || remainingTotals[index] < outstanding) {
+                    return false
+                }
+                val quantity = quantities[index]
+                if (quantity <= outstanding) {
+                    chosen[depth++] = index
+                    if (search(index + 1, outstanding - quantity)) {
+                        return true
+                    }
+                    --depth
+                    // Trying another goody of the same size would only repeat this search.
+                    while (index + 1 < quantities.size && quantities[index + 1] == quantity) {
+                        ++index
+                    }
+                }
+                ++index
+            }
+            return false
+        }
+    }
+}
+
+private fun quantityOf(state: StateAndRef<Goody.State>): Long = state.state.data.amount.quantity
+
+/**
+ * Takes [candidates] in order until their total covers [target].
+ */
+private fun accumulate(candidates: List<StateAndRef<Goody.State>>, target: Long): List<StateAndRef<Goody.State>> {
+    val selected = mutableListOf<StateAndRef<Goody.State>>()
+    var total = 0L
+    for (candidate in candidates) {
+        if (total >= target) {
+            break
+        }
+        selected += candidate
+        total += quantityOf(candidate)
+    }
+    return if (total >= target) selected else emptyList()
+}
@@ -0,0 +1,37 @@
+package com.example.goody
+
+import net.corda.core.serialization.CordaSerializable
+import java.time.Duration
+
+/**
+ * How many times a flow should build and finalise its transaction again when
+ * the notary reports that some of its goodies were already spent, and how
+ * long to back off between attempts. Each backoff doubles, up to [maxBackoff],
+ * and is then stretched by a random amount of up to 100% so that competing
+ * flows do not retry in step.
+ */
+@CordaSerializable
+data class NotaryRetryPolicy(val maxAttempts: Int, val initialBackoff: Duration, val maxBackoff: Duration) {
+    companion object {
+        /** Give up at the first notary conflict. */
+        @JvmField
+        val NONE = NotaryRetryPolicy(1, Duration.ZERO, Duration.ZERO)
+
+        @JvmField
+        val DEFAULT = NotaryRetryPolicy(5, Duration.ofMillis(100), Duration.ofSeconds(2))
+    }
+
+    init {
+        require(maxAttempts > 0) { "There must be at least one attempt" }
+        require(!initialBackoff.isNegative && maxBackoff >= initialBackoff) { "Invalid backoff" }
+    }
+
+    /**
+     * How long to wait after the given failed [attempt], starting from 1.
+     */
+    fun backoff(attempt: Int): Duration {
+        val doublings = minOf(attempt - 1, 30)
+        val millis = minOf(initialBackoff.toMillis() shl doublings, maxBackoff.toMillis() / 2)
+        return Duration.ofMillis((millis * (1.0 + Math.random())).toLong())
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.goody
+
+import com.example.goody.contracts.Goody
+import net.corda.core.crypto.toStringShort
+import net.corda.core.identity.Party
+import net.corda.core.node.ServiceHub
+import net.corda.core.serialization.CordaSerializable
+import net.corda.core.utilities.loggerFor
+import java.security.PublicKey
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Remembers which parties own our keys, so that coin selection neither loads
+ * every one of our keys nor asks the identity service about them each time.
+ *
+ * Each node's keys are loaded and resolved once, by its first selection. The
+ * cache then follows the vault's updates, and resolves the owner of any new
+ * goody whose key it has not seen before, e.g. a confidential identity that
+ * was generated since. Keys that own none of our goodies do not matter to
+ * coin selection, so they need not be learned. Nor can the keys that have no
+ * registered identity, such as a fresh key without a certificate, which are
+ * skipped until they do.
+ *
+ * A key's owning party never changes, so entries are never invalidated.
+ */
+class OwningPartyCache {
+    private companion object {
+        private val log = loggerFor<OwningPartyCache>()
+    }
+
+    private val nodes = ConcurrentHashMap<Party, NodeParties>()
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val loads = AtomicLong()
+    private val missNanos = AtomicLong()
+    private val loadNanos = AtomicLong()
+
+    /**
+     * Returns the parties that own this node's keys.
+     */
+    fun ourParties(services: ServiceHub): List<Party> {
+        return nodes.computeIfAbsent(services.myInfo.legalIdentities.first()) { NodeParties() }.parties(services)
+    }
+
+    private inner class NodeParties {
+        private val keys = ConcurrentHashMap<PublicKey, Party>()
+        private var subscribed = false
+        @Volatile
+        private var parties: List<Party>? = null
+
+        fun parties(services: ServiceHub): List<Party> {
+            val cached = parties
+            if (cached != null) {
+                hits.incrementAndGet()
+                return cached
+            }
+            synchronized(this) {
+                return parties ?: load(services)
+            }
+        }
+
+        private fun load(services: ServiceHub): List<Party> {
+            // Follow the vault before loading the keys, so that no new key is missed.
+            if (!subscribed) {
+                services.vaultService.rawUpdates.subscribe({ update ->
+                    update.produced.forEach { produced ->
+                        val state = produced.state.data
+                        if (state is Goody.State) {
+                            learn(services, state.owner.owningKey)
+                        }
+                    }
+                }, { ex -> log.error("Owning party cache updates have failed", ex) })
+                subscribed = true
+            }
+            val start = System.nanoTime()
+            services.keyManagementService.keys.forEach { key ->
+                if (keys.computeIfAbsent(key) { resolve(services, it) } == null) {
+                    log.warn("Unable to resolve the party owning key {}, ignoring its goodies", key.toStringShort())
+                }
+            }
+            loadNanos.set(System.nanoTime() - start)
+            loads.incrementAndGet()
+            return keys.values.distinct().also { parties = it }
+        }
+
+        private fun learn(services: ServiceHub, key: PublicKey) {
+            if (key in keys || services.keyManagementService.filterMyKeys(listOf(key)).none()) {
+                return
+            }
+            synchronized(this) {
+                val party = keys[key] ?: resolve(services, key)?.also { keys[key] = it }
+                if (party == null) {
+                    log.warn("Unable to resolve the party owning key {}, ignoring its goodies", key.toStringShort())
+                    return
+                }
+                val current = parties ?: return
+                if (party !in current) {
+                    parties = current + party
+                }
+            }
+        }
+    }
+
+    private fun resolve(services: ServiceHub, key: PublicKey): Party? {
+        val start = System.nanoTime()
+        val party = services.identityService.partyFromKey(key)
+        missNanos.addAndGet(System.nanoTime() - start)
+        misses.incrementAndGet()
+        return party
+    }
+
+    fun stats(): Stats {
+        val missCount = misses.get()
+        val averageMissNanos = if (missCount == 0L) 0L else missNanos.get() / missCount
+        return Stats(hits.get(), loads.get(), missCount, averageMissNanos, hits.get() * loadNanos.get())
+    }
+
+    /**
+     * @property hits how many times our parties were returned without loading our keys.
+     * @property loads how many times all of a node's keys were loaded and resolved.
+     * @property misses how many keys have been resolved to their owning parties.
+     * @property averageMissNanos the average time taken to resolve a key.
+     * @property estimatedNanosSaved how long loading and resolving all of our keys
+     * again would have taken on each of the [hits].
+     */
+    @CordaSerializable
+    data class Stats(val hits: Long, val loads: Long, val misses: Long, val averageMissNanos: Long, val estimatedNanosSaved: Long) {
+        val hitRate: Double get() = if (hits + loads == 0L) 0.0 else hits.toDouble() / (hits + loads)
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.goody
+
+import net.corda.core.identity.AbstractParty
+import net.corda.core.identity.Party
+import net.corda.core.node.ServiceHub
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Remembers the well-known [Party] behind each anonymous party that has been
+ * resolved, so that the identity service is only asked about new ones.
+ *
+ * Parties which cannot be resolved are not remembered, because their
+ * certificates may be registered later.
+ */
+class WellKnownPartyCache(private val maxSize: Int = DEFAULT_MAX_SIZE) {
+    private companion object {
+        private const val DEFAULT_MAX_SIZE = 10000
+    }
+
+    private val parties = ConcurrentHashMap<AbstractParty, Party>()
+
+    fun wellKnownParty(services: ServiceHub, party: AbstractParty): Party? {
+        return parties[party] ?: services.identityService.wellKnownPartyFromAnonymous(party)?.also { wellKnown ->
+            if (parties.size < maxSize) {
+                parties[party] = wellKnown
+            }
+        }
+    }
+}
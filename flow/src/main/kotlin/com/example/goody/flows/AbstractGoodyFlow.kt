@@ -1,13 +1,25 @@
 package com.example.goody.flows
 
 import co.paralleluniverse.fibers.Suspendable
-import net.corda.core.flows.FinalityFlow
-import net.corda.core.flows.FlowLogic
-import net.corda.core.flows.NotaryException
+import com.example.goody.GoodyMetrics
+import com.example.goody.GoodySelection
+import com.example.goody.NotaryRetryPolicy
+import net.corda.core.contracts.StateRef
+import net.corda.core.crypto.isFulfilledBy
+import net.corda.core.flows.*
 import net.corda.core.identity.Party
 import net.corda.core.transactions.SignedTransaction
 import net.corda.core.utilities.ProgressTracker
 
+/**
+ * Base class of the Goody flows that build, sign and finalise a transaction.
+ *
+ * Each flow builds and signs its transaction in a method of its own, and only
+ * passes the signed transaction to [finaliseTx]. The selected goodies and the
+ * [net.corda.core.transactions.TransactionBuilder] are then out of scope while
+ * the flow waits for the notary and its counterparties, so they are not
+ * written to every checkpoint that the flow takes.
+ */
 abstract class AbstractGoodyFlow(override val progressTracker: ProgressTracker) : FlowLogic<SignedTransaction>() {
     companion object {
         object STARTING : ProgressTracker.Step("Starting")
@@ -15,12 +27,83 @@ abstract class AbstractGoodyFlow(override val progressTracker: ProgressTracker)
         object FINALISING : ProgressTracker.Step("Finalising")
     }
 
+    private val constructedAt = GoodyMetrics.Stopwatch.start()
+
+    /**
+     * Runs [block], and records how long it took as [step] in [GoodyMetrics],
+     * unless the flow was restored from a checkpoint in another JVM meanwhile.
+     */
+    protected inline fun <T> timed(step: GoodyMetrics.Step, block: () -> T): T {
+        val stopwatch = GoodyMetrics.Stopwatch.start()
+        try {
+            return block()
+        } catch (e: InsufficientGoodiesException) {
+            GoodyMetrics.insufficientGoodies()
+            throw e
+        } finally {
+            GoodyMetrics.record(step, stopwatch)
+        }
+    }
+
+    /**
+     * Notarises [tx] if it needs it, and then records it and sends it to the
+     * [extraParticipants]. The notarisation is timed separately from the rest
+     * of [FinalityFlow], which will not ask the notary again. Our notary does
+     * not validate, so the contracts are verified first, as [FinalityFlow]
+     * would, before the notary can consume the inputs of an invalid transaction.
+     */
     @Suspendable
     protected fun finaliseTx(tx: SignedTransaction, extraParticipants: Set<Party>, message: String): SignedTransaction {
         try {
-            return subFlow(FinalityFlow(tx, extraParticipants))
+            val notarised = if (needsNotarySignature(tx)) {
+                tx.verify(serviceHub, false)
+                tx + timed(GoodyMetrics.Step.NOTARISATION) { subFlow(NotaryFlow.Client(tx)) }
+            } else {
+                tx
+            }
+            return timed(GoodyMetrics.Step.FINALITY) { subFlow(FinalityFlow(notarised, extraParticipants)) }.also {
+                GoodyMetrics.recordFlow(javaClass.simpleName, constructedAt)
+            }
         } catch (e: NotaryException) {
+            GoodyMetrics.notaryError()
+            val error = e.error
+            if (error is NotaryError.Conflict) {
+                throw GoodyNotaryConflictException(message, error.consumedStates.keys, e)
+            }
             throw GoodyException(message, e)
         }
     }
+
+    /**
+     * Runs [attempt], which should select goodies other than the given
+     * excluded ones and then build and finalise a transaction. If the notary
+     * reports that some of the goodies were already spent then we release
+     * our soft locks and index leases, back off, and try again without those
+     * goodies, for up to [NotaryRetryPolicy.maxAttempts] attempts in total.
+     */
+    protected inline fun withNotaryRetry(policy: NotaryRetryPolicy, attempt: (excludedRefs: Set<StateRef>) -> SignedTransaction): SignedTransaction {
+        val excludedRefs = LinkedHashSet<StateRef>()
+        var attemptNumber = 1
+        while (true) {
+            try {
+                return attempt(excludedRefs)
+            } catch (e: GoodyNotaryConflictException) {
+                if (attemptNumber >= policy.maxAttempts) {
+                    throw e
+                }
+                logger.warn("Notary conflict on attempt {} for {} goodies, retrying", attemptNumber, e.conflictingRefs.size)
+                GoodyMetrics.notaryRetry()
+                GoodySelection.getInstance().release(serviceHub, runId.uuid)
+                excludedRefs += e.conflictingRefs
+                FlowLogic.sleep(policy.backoff(attemptNumber))
+                ++attemptNumber
+            }
+        }
+    }
+
+    private fun needsNotarySignature(tx: SignedTransaction): Boolean {
+        val wtx = tx.tx
+        val needsNotarisation = wtx.inputs.isNotEmpty() || wtx.references.isNotEmpty() || wtx.timeWindow != null
+        return needsNotarisation && wtx.notary?.owningKey?.isFulfilledBy(tx.sigs.map { it.by }) != true
+    }
 }
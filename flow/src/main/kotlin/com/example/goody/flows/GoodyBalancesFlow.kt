@@ -0,0 +1,22 @@
+package com.example.goody.flows
+
+import co.paralleluniverse.fibers.Suspendable
+import com.example.goody.contracts.Candy
+import com.example.goody.services.GoodyBalanceService
+import net.corda.core.contracts.Amount
+import net.corda.core.flows.FlowLogic
+import net.corda.core.flows.StartableByRPC
+
+/**
+ * Returns how much of each type of [Candy] this node currently holds, or
+ * of only [candyType] if this is given. The balances are answered from
+ * the node's [GoodyBalanceService] rather than from the database, but
+ * each request is still a flow that the node checkpoints when it starts.
+ */
+@StartableByRPC
+class GoodyBalancesFlow(private val candyType: String?) : FlowLogic<Map<Candy, Amount<Candy>>>() {
+    @Suspendable
+    override fun call(): Map<Candy, Amount<Candy>> {
+        return serviceHub.cordaService(GoodyBalanceService::class.java).balances(candyType)
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.goody.flows
+
+import co.paralleluniverse.fibers.Suspendable
+import com.example.goody.GoodyMetrics
+import com.example.goody.GoodyOps
+import com.example.goody.GoodyPayment
+import com.example.goody.GoodySelectionStrategy
+import com.example.goody.NotaryRetryPolicy
+import com.example.goody.flows.AbstractGoodyFlow.Companion.FINALISING
+import com.example.goody.flows.AbstractGoodyFlow.Companion.SIGNING
+import com.example.goody.flows.AbstractGoodyFlow.Companion.STARTING
+import net.corda.core.contracts.StateRef
+import net.corda.core.flows.StartableByRPC
+import net.corda.core.transactions.SignedTransaction
+import net.corda.core.transactions.TransactionBuilder
+import net.corda.core.utilities.ProgressTracker
+
+/**
+ * Transfers candy to many recipients with a single transaction, and hence
+ * a single coin selection and a single round trip to the notary.
+ */
+@StartableByRPC
+class GoodyBatchTransferFlow(
+    private val payments: List<GoodyPayment>,
+    private val strategy: GoodySelectionStrategy,
+    private val retryPolicy: NotaryRetryPolicy
+) : AbstractGoodyFlow(tracker()) {
+    constructor(payments: List<GoodyPayment>, strategy: GoodySelectionStrategy) : this(payments, strategy, NotaryRetryPolicy.NONE)
+    constructor(payments: List<GoodyPayment>) : this(payments, GoodySelectionStrategy.OLDEST_FIRST)
+
+    private companion object {
+        private fun tracker() = ProgressTracker(STARTING, SIGNING, FINALISING)
+    }
+
+    @Throws(InsufficientGoodiesException::class)
+    @Suspendable
+    override fun call(): SignedTransaction = withNotaryRetry(retryPolicy) { excludedRefs ->
+        progressTracker.currentStep = STARTING
+        val tx = buildAndSign(excludedRefs)
+
+        progressTracker.currentStep = FINALISING
+        val recipients = payments.map(GoodyPayment::recipient).toSet()
+        finaliseTx(tx, recipients, "Unable to notarise batch transfer")
+    }
+
+    @Suspendable
+    private fun buildAndSign(excludedRefs: Set<StateRef>): SignedTransaction {
+        val builder = TransactionBuilder(notary = null)
+        val (transferTX, keysForSigning) = timed(GoodyMetrics.Step.BUILDING) {
+            GoodyOps.generateBatchTransfer(
+                serviceHub,
+                builder,
+                payments,
+                strategy,
+                excludedRefs
+            )
+        }
+
+        progressTracker.currentStep = SIGNING
+        return timed(GoodyMetrics.Step.SIGNING) { serviceHub.signInitialTransaction(transferTX, keysForSigning) }
+    }
+}
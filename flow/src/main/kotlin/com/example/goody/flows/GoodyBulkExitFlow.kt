@@ -0,0 +1,61 @@
+package com.example.goody.flows
+
+import co.paralleluniverse.fibers.Suspendable
+import com.example.goody.GoodyMetrics
+import com.example.goody.GoodyOps
+import com.example.goody.NotaryRetryPolicy
+import com.example.goody.GoodyRedemption
+import com.example.goody.flows.AbstractGoodyFlow.Companion.FINALISING
+import com.example.goody.flows.AbstractGoodyFlow.Companion.SIGNING
+import com.example.goody.flows.AbstractGoodyFlow.Companion.STARTING
+import net.corda.core.contracts.StateRef
+import net.corda.core.flows.StartableByRPC
+import net.corda.core.identity.Party
+import net.corda.core.transactions.SignedTransaction
+import net.corda.core.transactions.TransactionBuilder
+import net.corda.core.utilities.ProgressTracker
+
+/**
+ * Removes candy that we issued under many issuer references from the ledger
+ * with a single transaction, rather than with one [GoodyExitFlow] for each.
+ */
+@StartableByRPC
+class GoodyBulkExitFlow(
+    private val redemptions: List<GoodyRedemption>,
+    private val retryPolicy: NotaryRetryPolicy
+) : AbstractGoodyFlow(tracker()) {
+    constructor(redemptions: List<GoodyRedemption>) : this(redemptions, NotaryRetryPolicy.NONE)
+
+    private companion object {
+        private fun tracker() = ProgressTracker(STARTING, SIGNING, FINALISING)
+    }
+
+    @Throws(InsufficientGoodiesException::class)
+    @Suspendable
+    override fun call(): SignedTransaction = withNotaryRetry(retryPolicy) { excludedRefs ->
+        progressTracker.currentStep = STARTING
+        val (tx, participants) = buildAndSign(excludedRefs)
+
+        progressTracker.currentStep = FINALISING
+        finaliseTx(tx, participants, "Unable to notarise bulk exit")
+    }
+
+    @Suspendable
+    private fun buildAndSign(excludedRefs: Set<StateRef>): Pair<SignedTransaction, Set<Party>> {
+        val builder = TransactionBuilder(notary = null)
+
+        val (participants, keysForSigning) = timed(GoodyMetrics.Step.BUILDING) {
+            GoodyOps.generateBulkExit(
+                serviceHub,
+                builder,
+                ourIdentity,
+                redemptions,
+                excludedRefs
+            )
+        }
+
+        progressTracker.currentStep = SIGNING
+        val tx = timed(GoodyMetrics.Step.SIGNING) { serviceHub.signInitialTransaction(builder, keysForSigning) }
+        return Pair(tx, participants)
+    }
+}
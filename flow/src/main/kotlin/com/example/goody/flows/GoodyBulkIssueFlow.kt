@@ -0,0 +1,49 @@
+package com.example.goody.flows
+
+import co.paralleluniverse.fibers.Suspendable
+import com.example.goody.GoodyIssuance
+import com.example.goody.GoodyMetrics
+import com.example.goody.GoodyOps
+import com.example.goody.contracts.Goody
+import com.example.goody.contracts.issuedBy
+import com.example.goody.flows.AbstractGoodyFlow.Companion.FINALISING
+import com.example.goody.flows.AbstractGoodyFlow.Companion.SIGNING
+import com.example.goody.flows.AbstractGoodyFlow.Companion.STARTING
+import net.corda.core.flows.StartableByRPC
+import net.corda.core.identity.Party
+import net.corda.core.transactions.SignedTransaction
+import net.corda.core.transactions.TransactionBuilder
+import net.corda.core.utilities.ProgressTracker
+
+/**
+ * Issues many amounts of candy, possibly of different types, references and
+ * owners, in a single transaction.
+ */
+@StartableByRPC
+class GoodyBulkIssueFlow(
+    private val issuances: List<GoodyIssuance>,
+    private val notary: Party
+) : AbstractGoodyFlow(tracker()) {
+    private companion object {
+        private fun tracker() = ProgressTracker(STARTING, SIGNING, FINALISING)
+    }
+
+    @Suspendable
+    override fun call(): SignedTransaction {
+        progressTracker.currentStep = STARTING
+        val tx = buildAndSign()
+        progressTracker.currentStep = FINALISING
+        val recipients = issuances.mapNotNullTo(LinkedHashSet(), GoodyIssuance::owner) - ourIdentity
+        return finaliseTx(tx, recipients, "Unable to notarise bulk issue")
+    }
+
+    private fun buildAndSign(): SignedTransaction {
+        val builder = TransactionBuilder(notary)
+        val states = issuances.map { issuance ->
+            Goody.State(issuance.owner ?: ourIdentity, issuance.amount.issuedBy(ourIdentity.ref(issuance.issuerRef)))
+        }
+        val signers = timed(GoodyMetrics.Step.BUILDING) { GoodyOps.generateIssue(builder, states, notary) }
+        progressTracker.currentStep = SIGNING
+        return timed(GoodyMetrics.Step.SIGNING) { serviceHub.signInitialTransaction(builder, signers) }
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.goody.flows
+
+import co.paralleluniverse.fibers.Suspendable
+import com.example.goody.GoodyConsolidationReport
+import com.example.goody.GoodyOps
+import com.example.goody.contracts.Candy
+import com.example.goody.contracts.Goody
+import com.example.goody.flows.AbstractGoodyFlow.Companion.FINALISING
+import com.example.goody.flows.AbstractGoodyFlow.Companion.SIGNING
+import com.example.goody.flows.AbstractGoodyFlow.Companion.STARTING
+import com.example.goody.schemas.GoodySchemaV2
+import net.corda.core.contracts.Issued
+import net.corda.core.contracts.StateRef
+import net.corda.core.crypto.SecureHash
+import net.corda.core.flows.FinalityFlow
+import net.corda.core.flows.FlowLogic
+import net.corda.core.flows.NotaryException
+import net.corda.core.flows.StartableByRPC
+import net.corda.core.identity.AbstractParty
+import net.corda.core.identity.Party
+import net.corda.core.node.services.StatesNotAvailableException
+import net.corda.core.node.services.queryBy
+import net.corda.core.node.services.vault.*
+import net.corda.core.transactions.SignedTransaction
+import net.corda.core.transactions.TransactionBuilder
+import net.corda.core.utilities.NonEmptySet
+import net.corda.core.utilities.ProgressTracker
+import net.corda.core.utilities.loggerFor
+
+/**
+ * Merges the many small goodies that repeated transfers leave behind into a
+ * few large ones. Our unlocked goodies of each issued candy, notary and owner
+ * are merged in chunks of at most [maxInputsPerTransaction] states, each chunk
+ * with its own [Goody.Commands.Move] transaction. Each merged goody keeps its
+ * inputs' owner, so goodies held by a confidential identity stay with it.
+ *
+ * Goodies which another flow locks or spends in the meantime are skipped.
+ *
+ * @param candy the candy to consolidate, or `null` for every candy.
+ */
+@StartableByRPC
+class GoodyConsolidateFlow(
+    private val candy: Candy?,
+    private val maxInputsPerTransaction: Int
+) : FlowLogic<GoodyConsolidationReport>() {
+    constructor(candy: Candy?) : this(candy, DEFAULT_MAX_INPUTS)
+
+    companion object {
+        const val DEFAULT_MAX_INPUTS = 100
+        private const val PAGE_SIZE = 1000
+
+        private val log = loggerFor<GoodyConsolidateFlow>()
+        private fun tracker() = ProgressTracker(STARTING, SIGNING, FINALISING)
+    }
+
+    override val progressTracker = tracker()
+
+    @Suspendable
+    override fun call(): GoodyConsolidationReport {
+        require(maxInputsPerTransaction > 1) { "Each transaction must consolidate at least two states." }
+        progressTracker.currentStep = STARTING
+
+        // Only remember the references of the goodies to merge, to keep our checkpoints small.
+        val (statesBefore, chunks) = chunksToConsolidate()
+        val transactionIds = mutableListOf<SecureHash>()
+        var statesMerged = 0
+
+        for (chunk in chunks) {
+            progressTracker.currentStep = SIGNING
+            val tx = signConsolidation(chunk) ?: continue
+
+            progressTracker.currentStep = FINALISING
+            try {
+                transactionIds += subFlow(FinalityFlow(tx)).id
+            } catch (e: NotaryException) {
+                throw GoodyException("Unable to notarise consolidation", e)
+            }
+            statesMerged += chunk.size - 1
+        }
+
+        log.info("Consolidated {} goodies into {} with {} transaction(s)", statesBefore, statesBefore - statesMerged, transactionIds.size)
+        return GoodyConsolidationReport(statesBefore, statesBefore - statesMerged, transactionIds)
+    }
+
+    private data class ChunkKey(val token: Issued<Candy>, val notary: Party, val owner: AbstractParty)
+
+    /**
+     * Pages through our unlocked goodies, and groups their references into
+     * chunks of the same issued candy, notary and owner that can each be
+     * merged by one transaction.
+     */
+    private fun chunksToConsolidate(): Pair<Int, List<List<StateRef>>> {
+        var criteria: QueryCriteria = QueryCriteria.VaultQueryCriteria(
+            softLockingCondition = QueryCriteria.SoftLockingCondition(QueryCriteria.SoftLockingType.UNLOCKED_ONLY)
+        )
+        if (candy != null) {
+            criteria = criteria.and(QueryCriteria.VaultCustomQueryCriteria(builder { GoodySchemaV2.PersistentGoodyState::type.equal(candy.type) }))
+        }
+        val sorting = Sort(setOf(Sort.SortColumn(SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME), Sort.Direction.ASC)))
+
+        val pending = LinkedHashMap<ChunkKey, MutableList<StateRef>>()
+        val chunks = mutableListOf<List<StateRef>>()
+        var ourStateCount = 0
+        var pageNumber = DEFAULT_PAGE_NUM
+        while (true) {
+            val page = serviceHub.vaultService.queryBy<Goody.State>(criteria, PageSpecification(pageNumber, PAGE_SIZE), sorting)
+            val ourKeys = serviceHub.keyManagementService.filterMyKeys(page.states.map { it.state.data.owner.owningKey }.distinct()).toSet()
+            for (state in page.states) {
+                val goody = state.state.data
+                if (goody.owner.owningKey !in ourKeys) {
+                    continue
+                }
+                ++ourStateCount
+                val chunk = pending.getOrPut(ChunkKey(goody.amount.token, state.state.notary, goody.owner)) { mutableListOf() }
+                chunk += state.ref
+                if (chunk.size == maxInputsPerTransaction) {
+                    chunks += ArrayList(chunk)
+                    chunk.clear()
+                }
+            }
+            if (page.states.size < PAGE_SIZE || pageNumber.toLong() * PAGE_SIZE >= page.totalStatesAvailable) {
+                break
+            }
+            ++pageNumber
+        }
+
+        pending.values.filterTo(chunks) { it.size > 1 }
+        return Pair(ourStateCount, chunks)
+    }
+
+    /**
+     * Locks and merges the goodies in [chunk].
+     *
+     * @return the signed transaction, or `null` if any of these goodies is
+     * no longer available.
+     */
+    private fun signConsolidation(chunk: List<StateRef>): SignedTransaction? {
+        val inputs = serviceHub.vaultService.queryBy<Goody.State>(
+            QueryCriteria.VaultQueryCriteria(stateRefs = chunk),
+            PageSpecification(DEFAULT_PAGE_NUM, chunk.size)
+        ).states
+        if (inputs.size != chunk.size) {
+            log.info("Skipping consolidation of {} goodies, some of which have been spent", chunk.size)
+            return null
+        }
+
+        val builder = TransactionBuilder(notary = inputs.first().state.notary)
+        try {
+            serviceHub.vaultService.softLockReserve(builder.lockId, NonEmptySet.copyOf(chunk))
+        } catch (e: StatesNotAvailableException) {
+            log.info("Skipping consolidation of {} goodies, some of which are locked", chunk.size)
+            return null
+        }
+        val keysForSigning = GoodyOps.generateConsolidation(builder, inputs, inputs.first().state.data.owner)
+        return serviceHub.signInitialTransaction(builder, keysForSigning)
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.goody.flows
+
+import com.example.goody.GoodyMetrics
+import com.example.goody.contracts.Candy
+import com.example.goody.contracts.GoodyConsolidationPolicy
+import com.example.goody.flows.AbstractGoodyFlow.Companion.FINALISING
+import com.example.goody.flows.AbstractGoodyFlow.Companion.SIGNING
+import com.example.goody.flows.AbstractGoodyFlow.Companion.STARTING
+import net.corda.core.flows.StartableByRPC
+import net.corda.core.identity.Party
+import net.corda.core.transactions.SignedTransaction
+import net.corda.core.transactions.TransactionBuilder
+import net.corda.core.utilities.ProgressTracker
+import java.time.Duration
+
+/**
+ * Creates a [GoodyConsolidationPolicy] for [candy], so that this node checks
+ * every [interval] whether it holds more than [threshold] unconsumed goodies
+ * of this candy, and consolidates them if it does.
+ */
+@StartableByRPC
+class GoodyConsolidationPolicyFlow(
+    private val candy: Candy,
+    private val threshold: Int,
+    private val maxInputsPerTransaction: Int,
+    private val interval: Duration,
+    private val notary: Party
+) : AbstractGoodyFlow(tracker()) {
+    private companion object {
+        private fun tracker() = ProgressTracker(STARTING, SIGNING, FINALISING)
+    }
+
+    override fun call(): SignedTransaction {
+        progressTracker.currentStep = STARTING
+        val policy = GoodyConsolidationPolicy.State(
+            owner = ourIdentity,
+            candy = candy,
+            threshold = threshold,
+            maxInputsPerTransaction = maxInputsPerTransaction,
+            interval = interval,
+            nextCheck = serviceHub.clock.instant().plus(interval)
+        )
+        val builder = TransactionBuilder(notary)
+            .addOutputState(policy, GoodyConsolidationPolicy.PROGRAM_ID)
+            .addCommand(GoodyConsolidationPolicy.Commands.Create(), ourIdentity.owningKey)
+        builder.verify(serviceHub)
+
+        progressTracker.currentStep = SIGNING
+        val tx = timed(GoodyMetrics.Step.SIGNING) { serviceHub.signInitialTransaction(builder) }
+
+        progressTracker.currentStep = FINALISING
+        return finaliseTx(tx, emptySet(), "Unable to notarise consolidation policy")
+    }
+}
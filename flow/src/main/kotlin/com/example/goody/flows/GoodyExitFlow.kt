@@ -1,13 +1,17 @@
 package com.example.goody.flows
 
 import co.paralleluniverse.fibers.Suspendable
+import com.example.goody.GoodyMetrics
 import com.example.goody.GoodyOps
+import com.example.goody.NotaryRetryPolicy
 import com.example.goody.contracts.Candy
 import com.example.goody.flows.AbstractGoodyFlow.Companion.FINALISING
-import com.example.goody.flows.AbstractGoodyFlow.Companion.STARTING
 import com.example.goody.flows.AbstractGoodyFlow.Companion.SIGNING
+import com.example.goody.flows.AbstractGoodyFlow.Companion.STARTING
 import net.corda.core.contracts.Amount
+import net.corda.core.contracts.StateRef
 import net.corda.core.flows.StartableByRPC
+import net.corda.core.identity.Party
 import net.corda.core.transactions.SignedTransaction
 import net.corda.core.transactions.TransactionBuilder
 import net.corda.core.utilities.OpaqueBytes
@@ -16,32 +20,44 @@ import net.corda.core.utilities.ProgressTracker
 @StartableByRPC
 class GoodyExitFlow(
     private val candy: Amount<Candy>,
-    private val issuerRef: OpaqueBytes
+    private val issuerRef: OpaqueBytes,
+    private val retryPolicy: NotaryRetryPolicy
 ) : AbstractGoodyFlow(tracker()) {
+    constructor(candy: Amount<Candy>, issuerRef: OpaqueBytes) : this(candy, issuerRef, NotaryRetryPolicy.NONE)
+
     private companion object {
         private fun tracker() = ProgressTracker(STARTING, SIGNING, FINALISING)
     }
 
     @Throws(InsufficientGoodiesException::class)
     @Suspendable
-    override fun call(): SignedTransaction {
+    override fun call(): SignedTransaction = withNotaryRetry(retryPolicy) { excludedRefs ->
         progressTracker.currentStep = STARTING
+        val (tx, participants) = buildAndSign(excludedRefs)
+
+        // Commit the transaction
+        progressTracker.currentStep = FINALISING
+        finaliseTx(tx, participants, "Unable to notarise exit")
+    }
+
+    @Suspendable
+    private fun buildAndSign(excludedRefs: Set<StateRef>): Pair<SignedTransaction, Set<Party>> {
         val builder = TransactionBuilder(notary = null)
         val issuer = ourIdentity.ref(issuerRef)
 
-        val (participants, keysForSigning) = GoodyOps.generateExit(
-            serviceHub,
-            builder,
-            issuer,
-            candy
-        )
+        val (participants, keysForSigning) = timed(GoodyMetrics.Step.BUILDING) {
+            GoodyOps.generateExit(
+                serviceHub,
+                builder,
+                issuer,
+                candy,
+                excludedRefs
+            )
+        }
 
         // Sign transaction
         progressTracker.currentStep = SIGNING
-        val tx = serviceHub.signInitialTransaction(builder, keysForSigning)
-
-        // Commit the transaction
-        progressTracker.currentStep = FINALISING
-        return finaliseTx(tx, participants, "Unable to notarise exit")
+        val tx = timed(GoodyMetrics.Step.SIGNING) { serviceHub.signInitialTransaction(builder, keysForSigning) }
+        return Pair(tx, participants)
     }
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package com.example.goody.flows
 
+import com.example.goody.GoodyDenominations
+import com.example.goody.GoodyMetrics
 import com.example.goody.GoodyOps
 import com.example.goody.contracts.Candy
 import com.example.goody.contracts.issuedBy
@@ -14,24 +16,34 @@ import net.corda.core.transactions.TransactionBuilder
 import net.corda.core.utilities.OpaqueBytes
 import net.corda.core.utilities.ProgressTracker
 
+/**
+ * Issues candy to ourselves, as several goodies if [denominations] says so.
+ */
 @StartableByRPC
 class GoodyIssueFlow(
     private val candy: Amount<Candy>,
     private val issuerRef: OpaqueBytes,
-    private val notary: Party
+    private val notary: Party,
+    private val denominations: GoodyDenominations
 ) : AbstractGoodyFlow(tracker()) {
+    constructor(candy: Amount<Candy>, issuerRef: OpaqueBytes, notary: Party) : this(candy, issuerRef, notary, GoodyDenominations.SINGLE)
+
     private companion object {
         private fun tracker() = ProgressTracker(STARTING, SIGNING, FINALISING)
     }
 
     override fun call(): SignedTransaction {
         progressTracker.currentStep = STARTING
+        val tx = buildAndSign()
+        progressTracker.currentStep = FINALISING
+        return finaliseTx(tx, emptySet(), "Unable to notarise issue")
+    }
+
+    private fun buildAndSign(): SignedTransaction {
         val builder = TransactionBuilder(notary)
         val issuer = ourIdentity.ref(issuerRef)
-        val signers = GoodyOps.generateIssue(builder, candy.issuedBy(issuer), ourIdentity, notary)
+        val signers = timed(GoodyMetrics.Step.BUILDING) { GoodyOps.generateIssue(builder, candy.issuedBy(issuer), ourIdentity, notary, denominations) }
         progressTracker.currentStep = SIGNING
-        val tx = serviceHub.signInitialTransaction(builder, signers)
-        progressTracker.currentStep = FINALISING
-        return finaliseTx(tx, emptySet(), "Unable to notarise issue")
+        return timed(GoodyMetrics.Step.SIGNING) { serviceHub.signInitialTransaction(builder, signers) }
     }
 }
@@ -0,0 +1,15 @@
+package com.example.goody.flows
+
+import co.paralleluniverse.fibers.Suspendable
+import com.example.goody.GoodyMetrics
+import net.corda.core.flows.FlowLogic
+import net.corda.core.flows.StartableByRPC
+
+/**
+ * Returns the timings and counts that the Goody flows have recorded in [GoodyMetrics].
+ */
+@StartableByRPC
+class GoodyMetricsFlow : FlowLogic<GoodyMetrics.Report>() {
+    @Suspendable
+    override fun call(): GoodyMetrics.Report = GoodyMetrics.report()
+}
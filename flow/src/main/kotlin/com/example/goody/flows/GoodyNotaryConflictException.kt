@@ -0,0 +1,9 @@
+package com.example.goody.flows
+
+import net.corda.core.contracts.StateRef
+
+/**
+ * The notary refused a transaction because another transaction had already
+ * spent its [conflictingRefs].
+ */
+class GoodyNotaryConflictException(message: String, val conflictingRefs: Set<StateRef>, cause: Throwable?) : GoodyException(message, cause)
@@ -0,0 +1,72 @@
+package com.example.goody.flows
+
+import co.paralleluniverse.fibers.Suspendable
+import com.example.goody.contracts.Goody
+import com.example.goody.contracts.GoodyConsolidationPolicy
+import com.example.goody.schemas.GoodySchemaV2
+import net.corda.core.contracts.StateRef
+import net.corda.core.flows.FinalityFlow
+import net.corda.core.flows.FlowLogic
+import net.corda.core.flows.NotaryException
+import net.corda.core.flows.SchedulableFlow
+import net.corda.core.node.services.queryBy
+import net.corda.core.node.services.vault.DEFAULT_PAGE_NUM
+import net.corda.core.node.services.vault.PageSpecification
+import net.corda.core.node.services.vault.QueryCriteria
+import net.corda.core.node.services.vault.builder
+import net.corda.core.transactions.SignedTransaction
+import net.corda.core.transactions.TransactionBuilder
+import net.corda.core.utilities.loggerFor
+
+/**
+ * Started by the node's scheduler for a [GoodyConsolidationPolicy]. Counts
+ * our unconsumed goodies of the policy's candy, consolidates them if there
+ * are more than the policy's threshold, and then reschedules the policy.
+ * The policy is rescheduled even if consolidation fails, as otherwise no
+ * check would ever be scheduled again.
+ */
+@SchedulableFlow
+class GoodyScheduledConsolidationFlow(private val policyRef: StateRef) : FlowLogic<Unit>() {
+    private companion object {
+        private val log = loggerFor<GoodyScheduledConsolidationFlow>()
+    }
+
+    @Suspendable
+    override fun call() {
+        val policy = serviceHub.toStateAndRef<GoodyConsolidationPolicy.State>(policyRef).state.data
+        if (policy.owner != ourIdentity) {
+            return
+        }
+
+        val stateCount = countGoodies(policy)
+        if (stateCount > policy.threshold) {
+            log.info("Consolidating {} goodies of {}, exceeding threshold of {}", stateCount, policy.candy, policy.threshold)
+            try {
+                subFlow(GoodyConsolidateFlow(policy.candy, policy.maxInputsPerTransaction))
+            } catch (e: Exception) {
+                log.error("Unable to consolidate goodies of {}, will try again at the next check", policy.candy, e)
+            }
+        }
+
+        try {
+            subFlow(FinalityFlow(reschedule(policy)))
+        } catch (e: NotaryException) {
+            throw GoodyException("Unable to notarise rescheduled consolidation policy", e)
+        }
+    }
+
+    private fun countGoodies(policy: GoodyConsolidationPolicy.State): Long {
+        val criteria = QueryCriteria.VaultCustomQueryCriteria(builder { GoodySchemaV2.PersistentGoodyState::type.equal(policy.candy.type) })
+        return serviceHub.vaultService.queryBy<Goody.State>(criteria, PageSpecification(DEFAULT_PAGE_NUM, 1)).totalStatesAvailable
+    }
+
+    private fun reschedule(policy: GoodyConsolidationPolicy.State): SignedTransaction {
+        val policyState = serviceHub.toStateAndRef<GoodyConsolidationPolicy.State>(policyRef)
+        val builder = TransactionBuilder(policyState.state.notary)
+            .addInputState(policyState)
+            .addOutputState(policy.rescheduled(serviceHub.clock.instant()), GoodyConsolidationPolicy.PROGRAM_ID)
+            .addCommand(GoodyConsolidationPolicy.Commands.Reschedule(), ourIdentity.owningKey)
+        builder.verify(serviceHub)
+        return serviceHub.signInitialTransaction(builder)
+    }
+}
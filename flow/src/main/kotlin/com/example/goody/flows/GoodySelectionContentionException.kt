@@ -0,0 +1,8 @@
+package com.example.goody.flows
+
+/**
+ * Coin selection kept losing races for its goodies to concurrent flows. The
+ * goodies may still be available, so unlike [InsufficientGoodiesException]
+ * it is worth trying the flow again.
+ */
+class GoodySelectionContentionException(message: String) : GoodyException(message, null)
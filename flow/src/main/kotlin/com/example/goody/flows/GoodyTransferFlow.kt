@@ -1,12 +1,16 @@
 package com.example.goody.flows
 
 import co.paralleluniverse.fibers.Suspendable
+import com.example.goody.GoodyMetrics
 import com.example.goody.GoodyOps
+import com.example.goody.GoodySelectionStrategy
+import com.example.goody.NotaryRetryPolicy
 import com.example.goody.contracts.Candy
 import com.example.goody.flows.AbstractGoodyFlow.Companion.FINALISING
 import com.example.goody.flows.AbstractGoodyFlow.Companion.SIGNING
 import com.example.goody.flows.AbstractGoodyFlow.Companion.STARTING
 import net.corda.core.contracts.Amount
+import net.corda.core.contracts.StateRef
 import net.corda.core.flows.StartableByRPC
 import net.corda.core.identity.Party
 import net.corda.core.transactions.SignedTransaction
@@ -16,29 +20,42 @@ import net.corda.core.utilities.ProgressTracker
 @StartableByRPC
 class GoodyTransferFlow(
     private val amount: Amount<Candy>,
-    private val recipient: Party
+    private val recipient: Party,
+    private val strategy: GoodySelectionStrategy,
+    private val retryPolicy: NotaryRetryPolicy
 ) : AbstractGoodyFlow(tracker()) {
+    constructor(amount: Amount<Candy>, recipient: Party, strategy: GoodySelectionStrategy) : this(amount, recipient, strategy, NotaryRetryPolicy.NONE)
+    constructor(amount: Amount<Candy>, recipient: Party) : this(amount, recipient, GoodySelectionStrategy.OLDEST_FIRST)
+
     private companion object {
         private fun tracker() = ProgressTracker(STARTING, SIGNING, FINALISING)
     }
 
     @Throws(InsufficientGoodiesException::class)
     @Suspendable
-    override fun call(): SignedTransaction {
+    override fun call(): SignedTransaction = withNotaryRetry(retryPolicy) { excludedRefs ->
         progressTracker.currentStep = STARTING
+        val tx = buildAndSign(excludedRefs)
+
+        progressTracker.currentStep = FINALISING
+        finaliseTx(tx, setOf(recipient), "Unable to notarise transfer")
+    }
 
+    @Suspendable
+    private fun buildAndSign(excludedRefs: Set<StateRef>): SignedTransaction {
         val builder = TransactionBuilder(notary = null)
-        val (transferTX, keysForSigning) = GoodyOps.generateTransfer(
-            serviceHub,
-            builder,
-            recipient,
-            amount
-        )
+        val (transferTX, keysForSigning) = timed(GoodyMetrics.Step.BUILDING) {
+            GoodyOps.generateTransfer(
+                serviceHub,
+                builder,
+                recipient,
+                amount,
+                strategy,
+                excludedRefs
+            )
+        }
 
         progressTracker.currentStep = SIGNING
-        val tx = serviceHub.signInitialTransaction(transferTX, keysForSigning)
-
-        progressTracker.currentStep = FINALISING
-        return finaliseTx(tx, setOf(recipient), "Unable to notarise transfer")
+        return timed(GoodyMetrics.Step.SIGNING) { serviceHub.signInitialTransaction(transferTX, keysForSigning) }
     }
 }
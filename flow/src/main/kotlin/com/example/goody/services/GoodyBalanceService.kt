@@ -0,0 +1,80 @@
+package com.example.goody.services
+
+import com.example.goody.contracts.Candy
+import com.example.goody.contracts.Goody
+import com.example.goody.schemas.GoodySchemaV2
+import net.corda.core.contracts.Amount
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.node.AppServiceHub
+import net.corda.core.node.services.CordaService
+import net.corda.core.node.services.Vault
+import net.corda.core.node.services.trackBy
+import net.corda.core.node.services.vault.QueryCriteria
+import net.corda.core.node.services.vault.builder
+import net.corda.core.serialization.SingletonSerializeAsToken
+import net.corda.core.utilities.loggerFor
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Keeps a running total of each type of [Candy] in this node's vault, so that
+ * balance requests can be answered without querying the database.
+ *
+ * The totals are seeded by a single aggregate query the first time they are
+ * needed, and are then maintained from the vault's update feed.
+ */
+@CordaService
+class GoodyBalanceService(private val services: AppServiceHub) : SingletonSerializeAsToken() {
+    companion object {
+        private val log = loggerFor<GoodyBalanceService>()
+
+        /**
+         * Sums the unconsumed [Goody.State]s in the vault, grouped by candy type.
+         */
+        fun candySumCriteria(): QueryCriteria {
+            val sum = builder { GoodySchemaV2.PersistentGoodyState::count.sum(groupByColumns = listOf(GoodySchemaV2.PersistentGoodyState::type)) }
+            return QueryCriteria.VaultCustomQueryCriteria(sum)
+        }
+    }
+
+    private val balances = ConcurrentHashMap<Candy, Long>()
+
+    /**
+     * The vault is only accessible from within a database transaction, so
+     * wait until the first flow asks for the balances before seeding them.
+     */
+    private val tracking: Unit by lazy {
+        val (snapshot, updates) = services.vaultService.trackBy<Goody.State>(candySumCriteria())
+        val rows = snapshot.otherResults
+        for (index in 0 until rows.size step 2) {
+            balances[Candy(rows[index + 1] as String)] = rows[index] as Long
+        }
+        updates.subscribe({ update -> onUpdate(update) }, { ex -> log.error("Goody balance updates have failed", ex) })
+        log.info("Goody balances initialised for {} candy type(s)", balances.size)
+    }
+
+    /**
+     * Returns our current balance of each type of [Candy], or of only
+     * [candyType] if this is given.
+     */
+    fun balances(candyType: String?): Map<Candy, Amount<Candy>> {
+        tracking
+        return if (candyType != null) {
+            val candy = Candy(candyType)
+            val quantity = balances[candy]
+            if (quantity != null) mapOf(candy to Amount(quantity, candy)) else emptyMap()
+        } else {
+            balances.entries.associate { (candy, quantity) -> candy to Amount(quantity, candy) }
+        }
+    }
+
+    private fun onUpdate(update: Vault.Update<Goody.State>) {
+        update.consumed.forEach { adjust(it, -1) }
+        update.produced.forEach { adjust(it, +1) }
+    }
+
+    private fun adjust(stateAndRef: StateAndRef<Goody.State>, sign: Int) {
+        val amount = stateAndRef.state.data.amount
+        val delta = sign * amount.quantity
+        balances.compute(amount.token.product) { _, quantity -> ((quantity ?: 0L) + delta).takeIf { it != 0L } }
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.goody.services
+
+import com.example.goody.GoodySelectionStrategy
+import com.example.goody.contracts.Candy
+import com.example.goody.contracts.Goody
+import net.corda.core.contracts.Amount
+import net.corda.core.contracts.PartyAndReference
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.contracts.StateRef
+import net.corda.core.crypto.SecureHash
+import net.corda.core.identity.AbstractParty
+import net.corda.core.identity.Party
+import net.corda.core.node.AppServiceHub
+import net.corda.core.node.ServiceHub
+import net.corda.core.node.services.CordaService
+import net.corda.core.node.services.Vault
+import net.corda.core.node.services.queryBy
+import net.corda.core.node.services.trackBy
+import net.corda.core.node.services.vault.*
+import net.corda.core.serialization.SingletonSerializeAsToken
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.core.utilities.loggerFor
+import java.time.Instant
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Keeps our unconsumed [Goody.State]s in memory, grouped by candy, issuer and
+ * notary and ordered by quantity, so that coin selection can choose which
+ * goodies to spend without querying the database. The vault is then only
+ * asked to soft-lock the chosen goodies.
+ *
+ * The index is loaded from the vault the first time it is needed, and is then
+ * maintained from the vault's update feed. It assumes that the node records
+ * only the states that are relevant to it, which is the default.
+ *
+ * Goodies that the index chooses are leased to the selection's lock ID for a
+ * short while, so that other selections choose different goodies while the
+ * first flow soft-locks them. The leases are given up with the soft locks, by
+ * [release].
+ */
+@CordaService
+class GoodyUtxoIndex(private val services: AppServiceHub) : SingletonSerializeAsToken() {
+    companion object {
+        private val log = loggerFor<GoodyUtxoIndex>()
+        private const val PAGE_SIZE = 1000
+        private const val MAX_SMALLER_CANDIDATES = 200
+        private val LEASE_NANOS = TimeUnit.SECONDS.toNanos(30)
+        private val comparator = compareBy<Entry>({ it.quantity }, { it.ref.txhash }, { it.ref.index })
+
+        /**
+         * Returns this node's index, or `null` if the node has not installed it.
+         */
+        fun find(services: ServiceHub): GoodyUtxoIndex? {
+            return try {
+                services.cordaService(GoodyUtxoIndex::class.java)
+            } catch (e: IllegalArgumentException) {
+                null
+            }
+        }
+    }
+
+    private data class Key(val candy: Candy, val issuer: PartyAndReference, val notary: Party)
+
+    private data class Entry(val quantity: Long, val ref: StateRef)
+
+    private class Lease(val lockId: UUID, val expiresAt: Long)
+
+    private val buckets = HashMap<Key, TreeSet<Entry>>()
+    private val states = HashMap<StateRef, StateAndRef<Goody.State>>()
+    private val leases = HashMap<StateRef, Lease>()
+
+    /** Goodies consumed while the index is loading, which the snapshot may still contain. */
+    private var consumedWhileLoading: MutableSet<StateRef>? = HashSet()
+
+    /**
+     * The vault is only accessible from within a database transaction, so
+     * wait until the first flow selects goodies before loading them.
+     */
+    private val tracking: Unit by lazy {
+        val criteria = QueryCriteria.VaultQueryCriteria(relevancyStatus = Vault.RelevancyStatus.RELEVANT)
+        // Subscribe before loading, so that no update is missed.
+        val (_, updates) = services.vaultService.trackBy<Goody.State>(criteria, PageSpecification(DEFAULT_PAGE_NUM, 1))
+        updates.subscribe({ update -> onUpdate(update) }, { ex -> log.error("Goody index updates have failed", ex) })
+
+        val loaded = load()
+        synchronized(this) {
+            consumedWhileLoading = null
+        }
+        log.info("Goody index loaded {} goodies", loaded)
+    }
+
+    /**
+     * Loads our unconsumed goodies in the order they were recorded. Flows may
+     * consume goodies meanwhile, which would shift the rows between pages of
+     * an offset query, so each page instead starts strictly after the time
+     * that the previous page ended at. The last page may end part of the way
+     * through the goodies recorded at that time, so these are loaded together
+     * by a query of their own.
+     *
+     * @return how many goodies were loaded.
+     */
+    private fun load(): Int {
+        val sorting = Sort(setOf(Sort.SortColumn(SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME), Sort.Direction.ASC)))
+        var loaded = 0
+        var after: Instant? = null
+        while (true) {
+            val predicate = after?.let { ColumnPredicate.BinaryComparison(BinaryComparisonOperator.GREATER_THAN, it) }
+            val page = services.vaultService.queryBy<Goody.State>(recorded(predicate), PageSpecification(DEFAULT_PAGE_NUM, PAGE_SIZE), sorting)
+            if (page.states.size < PAGE_SIZE) {
+                return loaded + addAll(page.states)
+            }
+
+            val lastRecorded = page.statesMetadata.last().recordedTime
+            loaded += addAll(page.states.filterIndexed { index, _ -> page.statesMetadata[index].recordedTime != lastRecorded })
+            val atLastRecorded = ColumnPredicate.EqualityComparison(EqualityComparisonOperator.EQUAL, lastRecorded)
+            loaded += addAll(services.vaultService.queryBy<Goody.State>(recorded(atLastRecorded), PageSpecification(DEFAULT_PAGE_NUM, MAX_PAGE_SIZE)).states)
+            after = lastRecorded
+        }
+    }
+
+    private fun recorded(predicate: ColumnPredicate<Instant>?): QueryCriteria {
+        val timeCondition = predicate?.let { QueryCriteria.TimeCondition(QueryCriteria.TimeInstantType.RECORDED, it) }
+        return QueryCriteria.VaultQueryCriteria(timeCondition = timeCondition, relevancyStatus = Vault.RelevancyStatus.RELEVANT)
+    }
+
+    private fun addAll(page: List<StateAndRef<Goody.State>>): Int {
+        synchronized(this) {
+            val consumed = consumedWhileLoading ?: emptySet<StateRef>()
+            page.filter { it.ref !in consumed }.forEach(::add)
+        }
+        return page.size
+    }
+
+    /**
+     * Chooses goodies to cover [amount] from the smallest goody that covers it
+     * by itself, if there is one, and from the largest goodies, and lets the
+     * [strategy] choose between these. The strategies that look for less
+     * change also see more of the goodies smaller than [amount]. The goodies of each notary are
+     * considered separately, and those of only one notary are chosen. Any
+     * [excludedRefs] are never chosen, nor are goodies leased to another lock
+     * ID. The chosen goodies are leased to [lockId], but not soft-locked.
+     *
+     * @return the chosen goodies, or an empty list if there are not enough
+     * goodies that are not leased.
+     */
+    fun select(amount: Amount<Candy>,
+               notary: Party?,
+               onlyFromIssuerParties: Set<AbstractParty>?,
+               withIssuerRefs: Set<OpaqueBytes>?,
+               strategy: GoodySelectionStrategy,
+               lockId: UUID,
+               excludedRefs: Set<StateRef>): List<StateAndRef<Goody.State>> {
+        tracking
+        val now = System.nanoTime()
+        synchronized(this) {
+            val matching = buckets.filterKeys { key ->
+                key.candy == amount.token
+                    && (notary == null || key.notary == notary)
+                    && (onlyFromIssuerParties == null || key.issuer.party in onlyFromIssuerParties)
+                    && (withIssuerRefs == null || key.issuer.reference in withIssuerRefs)
+            }.entries.groupBy({ it.key.notary }, { it.value })
+            val isAvailable = { entry: Entry -> entry.ref !in excludedRefs && isUnleased(entry.ref, lockId, now) }
+
+            val candidates = matching.values.flatMap { notaryBuckets -> candidates(notaryBuckets, amount.quantity, strategy, isAvailable) }
+            val selected = strategy.selectWithOneNotary(candidates.map { states.getValue(it.ref) }, amount.quantity)
+            val lease = Lease(lockId, now + LEASE_NANOS)
+            selected.forEach { leases[it.ref] = lease }
+            return selected
+        }
+    }
+
+    private fun isUnleased(ref: StateRef, lockId: UUID, now: Long): Boolean {
+        val lease = leases[ref] ?: return true
+        return lease.lockId == lockId || lease.expiresAt - now < 0
+    }
+
+    /**
+     * Gives up the leases that [lockId] holds on the [refs], or on every
+     * goody if [refs] is `null`, so that other selections may choose them.
+     */
+    fun release(lockId: UUID, refs: Collection<StateRef>? = null) {
+        synchronized(this) {
+            if (refs == null) {
+                leases.values.removeIf { it.lockId == lockId }
+            } else {
+                refs.forEach { ref -> leases.computeIfPresent(ref) { _, lease -> lease.takeUnless { it.lockId == lockId } } }
+            }
+        }
+    }
+
+    /**
+     * Returns the smallest goody in each of one notary's [notaryBuckets] that
+     * covers the [target] by itself, and then their largest goodies until
+     * these cover the [target] between them. For [GoodySelectionStrategy.BEST_FIT]
+     * and [GoodySelectionStrategy.EXACT_MATCH_PREFERRED] these are followed by
+     * up to [MAX_SMALLER_CANDIDATES] more of each bucket's largest goodies
+     * that are smaller than the [target], which they may combine with less
+     * change.
+     */
+    private fun candidates(notaryBuckets: List<TreeSet<Entry>>,
+                           target: Long,
+                           strategy: GoodySelectionStrategy,
+                           isAvailable: (Entry) -> Boolean): List<Entry> {
+        val probe = Entry(target, StateRef(SecureHash.zeroHash, 0))
+        val covering = notaryBuckets.mapNotNull { bucket -> bucket.tailSet(probe, true).firstOrNull(isAvailable) }.sortedWith(comparator)
+
+        val largest = ArrayList<Entry>()
+        var total = 0L
+        for (bucket in notaryBuckets) {
+            val descending = bucket.descendingIterator()
+            while (total < target && descending.hasNext()) {
+                val entry = descending.next()
+                if (isAvailable(entry) && entry !in covering) {
+                    largest += entry
+                    total += entry.quantity
+                }
+            }
+        }
+        if (strategy == GoodySelectionStrategy.BEST_FIT || strategy == GoodySelectionStrategy.EXACT_MATCH_PREFERRED) {
+            val chosen = HashSet(largest)
+            for (bucket in notaryBuckets) {
+                bucket.headSet(probe, false).descendingIterator().asSequence()
+                    .filter { isAvailable(it) && it !in chosen }
+                    .take(MAX_SMALLER_CANDIDATES)
+                    .forEach { largest += it }
+            }
+        }
+        largest.sortWith(comparator.reversed())
+        return covering + largest
+    }
+
+    /**
+     * How many goodies the index holds.
+     */
+    val size: Int get() = synchronized(this) { states.size }
+
+    private fun onUpdate(update: Vault.Update<Goody.State>) {
+        synchronized(this) {
+            update.consumed.forEach(::remove)
+            update.produced.forEach(::add)
+        }
+    }
+
+    private fun add(stateAndRef: StateAndRef<Goody.State>) {
+        if (states.putIfAbsent(stateAndRef.ref, stateAndRef) == null) {
+            bucketFor(stateAndRef).add(entryFor(stateAndRef))
+        }
+    }
+
+    private fun remove(stateAndRef: StateAndRef<Goody.State>) {
+        consumedWhileLoading?.add(stateAndRef.ref)
+        leases.remove(stateAndRef.ref)
+        if (states.remove(stateAndRef.ref) != null) {
+            bucketFor(stateAndRef).remove(entryFor(stateAndRef))
+        }
+    }
+
+    private fun bucketFor(stateAndRef: StateAndRef<Goody.State>): TreeSet<Entry> {
+        val token = stateAndRef.state.data.amount.token
+        return buckets.getOrPut(Key(token.product, token.issuer, stateAndRef.state.notary)) { TreeSet(comparator) }
+    }
+
+    private fun entryFor(stateAndRef: StateAndRef<Goody.State>) = Entry(stateAndRef.state.data.amount.quantity, stateAndRef.ref)
+}
@@ -0,0 +1,55 @@
+package com.example.goody
+
+import org.junit.Assert.*
+import org.junit.Test
+
+class GoodyDenominationsTest {
+    @Test
+    fun `single issues one goody`() {
+        assertEquals(listOf(7684L), GoodyDenominations.SINGLE.split(7684))
+    }
+
+    @Test
+    fun `powers of ten keep a minimum of each smaller denomination`() {
+        val quantities = GoodyDenominations.POWERS_OF_TEN.split(7684)
+        assertEquals(7684L, quantities.sum())
+        assertEquals(List(6) { 1000L } + List(15) { 100L } + List(17) { 10L } + List(14) { 1L }, quantities)
+    }
+
+    @Test
+    fun `powers of ten split a round amount`() {
+        assertEquals(List(8) { 100L } + List(19) { 10L } + List(10) { 1L }, GoodyDenominations.POWERS_OF_TEN.split(1000))
+    }
+
+    @Test
+    fun `powers of ten with a minimum of one follow the digits of the amount`() {
+        val quantities = GoodyDenominations.powersOfTen(1).split(7684)
+        assertEquals(List(7) { 1000L } + List(6) { 100L } + List(8) { 10L } + List(4) { 1L }, quantities)
+        assertEquals(listOf(1000L), GoodyDenominations.powersOfTen(1).split(1000))
+    }
+
+    @Test
+    fun `powers of ten take what a small amount allows`() {
+        assertEquals(List(15) { 1L }, GoodyDenominations.POWERS_OF_TEN.split(15))
+    }
+
+    @Test
+    fun `powers of ten handle the largest amount`() {
+        assertEquals(Long.MAX_VALUE, GoodyDenominations.POWERS_OF_TEN.split(Long.MAX_VALUE).sum())
+    }
+
+    @Test
+    fun `equal buckets differ by at most one`() {
+        assertEquals(listOf(3L, 3L, 2L), GoodyDenominations.equalBuckets(3).split(8))
+    }
+
+    @Test
+    fun `equal buckets never issue empty goodies`() {
+        assertEquals(listOf(1L, 1L), GoodyDenominations.equalBuckets(10).split(2))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun `there must be at least one bucket`() {
+        GoodyDenominations.equalBuckets(0)
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.goody
+
+import com.example.goody.GoodySelectionStrategy.*
+import com.example.goody.contracts.Candy
+import com.example.goody.contracts.Goody
+import com.example.goody.contracts.issuedBy
+import net.corda.core.contracts.Amount
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.contracts.StateRef
+import net.corda.core.contracts.TransactionState
+import net.corda.core.crypto.SecureHash
+import net.corda.core.identity.CordaX500Name
+import net.corda.core.identity.Party
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.testing.core.DUMMY_NOTARY_NAME
+import net.corda.testing.core.TestIdentity
+import org.junit.Assert.*
+import org.junit.Test
+
+class GoodySelectionStrategyTest {
+    private companion object {
+        private val NOUGAT = Candy("Nougat")
+        private val GOODY_REFERENCE = OpaqueBytes(byteArrayOf(0x65, 0x33, 0x00, 0x24, 0x7C, 0x69))
+        private val bankOfGoodies = TestIdentity(BOG_NAME)
+        private val notary = TestIdentity(DUMMY_NOTARY_NAME)
+        private val otherNotary = TestIdentity(CordaX500Name("Other Notary Service", "Zurich", "CH"))
+    }
+
+    private fun goodies(vararg quantities: Long): List<StateAndRef<Goody.State>> = goodiesWithNotary(notary.party, *quantities)
+
+    private fun goodiesWithNotary(notary: Party, vararg quantities: Long): List<StateAndRef<Goody.State>> {
+        val txId = SecureHash.randomSHA256()
+        return quantities.mapIndexed { index, quantity ->
+            val amount = Amount(quantity, NOUGAT) issuedBy bankOfGoodies.party.ref(GOODY_REFERENCE)
+            val state = TransactionState(Goody.State(bankOfGoodies.party, amount), Goody.PROGRAM_ID, notary)
+            StateAndRef(state, StateRef(txId, index))
+        }
+    }
+
+    private fun List<StateAndRef<Goody.State>>.quantities() = map { it.state.data.amount.quantity }
+
+    @Test
+    fun `oldest first spends goodies in order`() {
+        assertEquals(listOf(10L, 50L, 20L), OLDEST_FIRST.select(goodies(10, 50, 20, 100), 70).quantities())
+    }
+
+    @Test
+    fun `largest first spends the fewest goodies`() {
+        assertEquals(listOf(100L), LARGEST_FIRST.select(goodies(10, 50, 20, 100), 70).quantities())
+        assertEquals(listOf(100L, 50L), LARGEST_FIRST.select(goodies(10, 50, 20, 100), 130).quantities())
+    }
+
+    @Test
+    fun `best fit spends the smallest covering goody`() {
+        assertEquals(listOf(50L), BEST_FIT.select(goodies(10, 50, 20, 100), 45).quantities())
+    }
+
+    @Test
+    fun `best fit minimises change when no single goody covers the target`() {
+        // Largest first would spend 100 + 50 = 150, but 100 + 20 also covers 115.
+        assertEquals(listOf(100L, 20L), BEST_FIT.select(goodies(10, 50, 20, 100), 115).quantities())
+    }
+
+    @Test
+    fun `exact match preferred avoids change`() {
+        assertEquals(listOf(50L, 20L), EXACT_MATCH_PREFERRED.select(goodies(10, 50, 20, 100), 70).quantities())
+        assertEquals(listOf(100L), EXACT_MATCH_PREFERRED.select(goodies(10, 50, 20, 100), 100).quantities())
+    }
+
+    @Test
+    fun `exact match preferred falls back to best fit`() {
+        assertEquals(listOf(100L), EXACT_MATCH_PREFERRED.select(goodies(10, 50, 20, 100), 75).quantities())
+    }
+
+    @Test
+    fun `every strategy returns nothing when the goodies cannot cover the target`() {
+        for (strategy in GoodySelectionStrategy.values()) {
+            assertTrue(strategy.name, strategy.select(goodies(10, 50, 20, 100), 181).isEmpty())
+        }
+    }
+
+    @Test
+    fun `only one notary's goodies are selected`() {
+        val candidates = goodiesWithNotary(notary.party, 10, 10, 10) + goodiesWithNotary(otherNotary.party, 40)
+        val selected = OLDEST_FIRST.selectWithOneNotary(candidates, 30)
+        assertEquals(listOf(40L), selected.quantities())
+        assertEquals(otherNotary.party, selected.single().state.notary)
+    }
+
+    @Test
+    fun `a notary whose goodies cannot cover the target is skipped`() {
+        val candidates = goodiesWithNotary(notary.party, 10) + goodiesWithNotary(otherNotary.party, 20, 20)
+        val selected = OLDEST_FIRST.selectWithOneNotary(candidates, 35)
+        assertEquals(listOf(20L, 20L), selected.quantities())
+        assertTrue(selected.all { it.state.notary == otherNotary.party })
+    }
+
+    @Test
+    fun `goodies are not combined across notaries`() {
+        val candidates = goodiesWithNotary(notary.party, 20) + goodiesWithNotary(otherNotary.party, 20)
+        assertTrue(OLDEST_FIRST.selectWithOneNotary(candidates, 30).isEmpty())
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.goody
+
+import co.paralleluniverse.fibers.Suspendable
+import com.example.goody.contracts.Candy
+import com.example.goody.contracts.issuedBy
+import net.corda.core.contracts.Amount
+import net.corda.core.flows.FinalityFlow
+import net.corda.core.flows.FlowLogic
+import net.corda.core.identity.AnonymousParty
+import net.corda.core.identity.Party
+import net.corda.core.transactions.TransactionBuilder
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.core.utilities.getOrThrow
+import net.corda.testing.node.MockNetwork
+import net.corda.testing.node.StartedMockNode
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+class OwningPartyCacheTest {
+    /**
+     * Issues a goody to a new confidential identity of our own.
+     */
+    private class IssueToFreshKeyFlow(private val notary: Party) : FlowLogic<Unit>() {
+        @Suspendable
+        override fun call() {
+            val owner = AnonymousParty(serviceHub.keyManagementService.freshKeyAndCert(ourIdentityAndCert, false).owningKey)
+            val builder = TransactionBuilder(notary)
+            val amount = Amount(10, Candy("Nougat")) issuedBy ourIdentity.ref(OpaqueBytes.of(0x01))
+            val signers = GoodyOps.generateIssue(builder, amount, owner, notary)
+            subFlow(FinalityFlow(serviceHub.signInitialTransaction(builder, signers)))
+        }
+    }
+
+    private lateinit var mockNet: MockNetwork
+    private lateinit var bankOfGoodiesNode: StartedMockNode
+
+    @Before
+    fun start() {
+        mockNet = MockNetwork(
+            cordappPackages = listOf("com.example.goody.contracts", "com.example.goody.schemas")
+        )
+        bankOfGoodiesNode = mockNet.createPartyNode(BOG_NAME)
+    }
+
+    @After
+    fun cleanUp() {
+        mockNet.stopNodes()
+    }
+
+    @Test
+    fun `keys are only loaded once`() {
+        val cache = OwningPartyCache()
+        val bankOfGoodies = bankOfGoodiesNode.info.identityFromX500Name(BOG_NAME)
+
+        val first = bankOfGoodiesNode.transaction { cache.ourParties(bankOfGoodiesNode.services) }
+        assertEquals(listOf(bankOfGoodies), first)
+        val keyCount = cache.stats().misses
+        with(cache.stats()) {
+            assertEquals(0L, hits)
+            assertEquals(1L, loads)
+        }
+
+        val second = bankOfGoodiesNode.transaction { cache.ourParties(bankOfGoodiesNode.services) }
+        assertEquals(first, second)
+        with(cache.stats()) {
+            assertEquals(1L, hits)
+            assertEquals(1L, loads)
+            assertEquals(keyCount, misses)
+            assertEquals(0.5, hitRate, 0.0)
+        }
+    }
+
+    @Test
+    fun `new keys are learned from the vault`() {
+        val cache = OwningPartyCache()
+        bankOfGoodiesNode.transaction { cache.ourParties(bankOfGoodiesNode.services) }
+        val keyCount = cache.stats().misses
+
+        val future = bankOfGoodiesNode.startFlow(IssueToFreshKeyFlow(mockNet.defaultNotaryIdentity))
+        mockNet.runNetwork()
+        future.getOrThrow()
+
+        val parties = bankOfGoodiesNode.transaction { cache.ourParties(bankOfGoodiesNode.services) }
+        assertEquals(listOf(bankOfGoodiesNode.info.identityFromX500Name(BOG_NAME)), parties)
+        with(cache.stats()) {
+            // Only the fresh key was resolved, and the keys were not loaded again.
+            assertEquals(keyCount + 1, misses)
+            assertEquals(1L, loads)
+        }
+    }
+
+    @Test
+    fun `keys without an identity are skipped`() {
+        val cache = OwningPartyCache()
+        // This key has no certificate, so the identity service cannot resolve its owner.
+        bankOfGoodiesNode.transaction { bankOfGoodiesNode.services.keyManagementService.freshKey() }
+
+        val parties = bankOfGoodiesNode.transaction { cache.ourParties(bankOfGoodiesNode.services) }
+        assertEquals(listOf(bankOfGoodiesNode.info.identityFromX500Name(BOG_NAME)), parties)
+    }
+}
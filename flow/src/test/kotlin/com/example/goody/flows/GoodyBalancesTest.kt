@@ -0,0 +1,82 @@
+package com.example.goody.flows
+
+import com.example.goody.BOG_NAME
+import com.example.goody.contracts.Candy
+import com.example.goody.contracts.minus
+import net.corda.core.contracts.Amount
+import net.corda.core.identity.Party
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.core.utilities.getOrThrow
+import net.corda.testing.core.ALICE_NAME
+import net.corda.testing.core.singleIdentity
+import net.corda.testing.node.MockNetwork
+import net.corda.testing.node.StartedMockNode
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+class GoodyBalancesTest {
+    private companion object {
+        private val NOUGAT = Candy("Nougat")
+        private val TOFFEE = Candy("Toffee")
+        private val initialNougat = Amount(7684, NOUGAT)
+        private val initialToffee = Amount(1002, TOFFEE)
+        private val GOODY_REFERENCE = OpaqueBytes(byteArrayOf(0x65, 0x33, 0x00, 0x24, 0x7C, 0x69))
+    }
+
+    private lateinit var mockNet: MockNetwork
+    private lateinit var bankOfGoodiesNode: StartedMockNode
+    private lateinit var aliceNode: StartedMockNode
+    private lateinit var alice: Party
+
+    @Before
+    fun start() {
+        mockNet = MockNetwork(
+            cordappPackages = listOf("com.example.goody.contracts", "com.example.goody.schemas", "com.example.goody.services")
+        )
+        bankOfGoodiesNode = mockNet.createPartyNode(BOG_NAME)
+        aliceNode = mockNet.createPartyNode(ALICE_NAME)
+        alice = aliceNode.info.singleIdentity()
+        bankOfGoodiesNode.startFlow(GoodyIssueFlow(initialNougat, GOODY_REFERENCE, mockNet.defaultNotaryIdentity)).getOrThrow()
+        bankOfGoodiesNode.startFlow(GoodyIssueFlow(initialToffee, GOODY_REFERENCE, mockNet.defaultNotaryIdentity)).getOrThrow()
+    }
+
+    @After
+    fun cleanUp() {
+        mockNet.stopNodes()
+    }
+
+    private fun balancesOf(node: StartedMockNode, candyType: String? = null): Map<Candy, Amount<Candy>> {
+        val future = node.startFlow(GoodyBalancesFlow(candyType))
+        mockNet.runNetwork()
+        return future.getOrThrow()
+    }
+
+    @Test
+    fun `balances are seeded from the vault`() {
+        val balances = balancesOf(bankOfGoodiesNode)
+        assertEquals(mapOf(NOUGAT to initialNougat, TOFFEE to initialToffee), balances)
+    }
+
+    @Test
+    fun `balances can be filtered by candy type`() {
+        assertEquals(mapOf(TOFFEE to initialToffee), balancesOf(bankOfGoodiesNode, "toffee"))
+        assertTrue(balancesOf(bankOfGoodiesNode, "Fudge").isEmpty())
+    }
+
+    @Test
+    fun `balances follow transfers`() {
+        assertEquals(initialNougat, balancesOf(bankOfGoodiesNode)[NOUGAT])
+        assertTrue(balancesOf(aliceNode).isEmpty())
+
+        val candy = Amount(1000, NOUGAT)
+        val future = bankOfGoodiesNode.startFlow(GoodyTransferFlow(candy, alice))
+        mockNet.runNetwork()
+        future.getOrThrow()
+
+        assertEquals(initialNougat - candy.quantity, balancesOf(bankOfGoodiesNode)[NOUGAT])
+        assertEquals(initialToffee, balancesOf(bankOfGoodiesNode)[TOFFEE])
+        assertEquals(mapOf(NOUGAT to candy), balancesOf(aliceNode))
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.goody.flows
+
+import com.example.goody.BOG_NAME
+import com.example.goody.GoodyPayment
+import com.example.goody.assertFail
+import com.example.goody.contracts.Candy
+import com.example.goody.contracts.Goody
+import net.corda.core.contracts.Amount
+import net.corda.core.identity.Party
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.core.utilities.getOrThrow
+import net.corda.core.utilities.loggerFor
+import net.corda.testing.core.ALICE_NAME
+import net.corda.testing.core.BOB_NAME
+import net.corda.testing.core.singleIdentity
+import net.corda.testing.node.MockNetwork
+import net.corda.testing.node.StartedMockNode
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import kotlin.test.assertFailsWith
+
+class GoodyBatchTransferTest {
+    private companion object {
+        private val log = loggerFor<GoodyBatchTransferTest>()
+        private const val CANDY_TYPE = "Nougat"
+        private val NOUGAT = Candy(CANDY_TYPE)
+        private val initialCandy = Amount(7684, NOUGAT)
+        private val GOODY_REFERENCE = OpaqueBytes(byteArrayOf(0x65, 0x33, 0x00, 0x24, 0x7C, 0x69))
+    }
+
+    private lateinit var mockNet: MockNetwork
+    private lateinit var bankOfGoodiesNode: StartedMockNode
+    private lateinit var bankOfGoodies: Party
+    private lateinit var alice: Party
+    private lateinit var bob: Party
+
+    @Before
+    fun start() {
+        mockNet = MockNetwork(
+            cordappPackages = listOf("com.example.goody.contracts", "com.example.goody.schemas")
+        )
+        bankOfGoodiesNode = mockNet.createPartyNode(BOG_NAME)
+        bankOfGoodies = bankOfGoodiesNode.info.identityFromX500Name(BOG_NAME)
+        alice = mockNet.createPartyNode(ALICE_NAME).info.singleIdentity()
+        bob = mockNet.createPartyNode(BOB_NAME).info.singleIdentity()
+        val future = bankOfGoodiesNode.startFlow(GoodyIssueFlow(initialCandy, GOODY_REFERENCE, mockNet.defaultNotaryIdentity))
+        future.getOrThrow()
+    }
+
+    @After
+    fun cleanUp() {
+        mockNet.stopNodes()
+    }
+
+    @Test
+    fun `pay many recipients in one transaction`() {
+        val payments = listOf(
+            GoodyPayment(alice, Amount(1000, NOUGAT)),
+            GoodyPayment(bob, Amount(2000, NOUGAT)),
+            GoodyPayment(alice, Amount(500, NOUGAT))
+        )
+        val future = bankOfGoodiesNode.startFlow(GoodyBatchTransferFlow(payments))
+        mockNet.runNetwork()
+        val outputs = future.getOrThrow().tx.outputsOfType<Goody.State>().groupBy(Goody.State::owner)
+        log.info("Batch Transfer TX: output={}", outputs)
+
+        val aliceGoodies = outputs[alice] ?: assertFail("Alice has received no goodies")
+        assertEquals(1, aliceGoodies.size)
+        assertEquals(1500, aliceGoodies[0].amount.quantity)
+
+        val bobGoodies = outputs[bob] ?: assertFail("Bob has received no goodies")
+        assertEquals(1, bobGoodies.size)
+        assertEquals(2000, bobGoodies[0].amount.quantity)
+
+        val bankChange = outputs[bankOfGoodies] ?: assertFail("Bank has received no change")
+        assertEquals(1, bankChange.size)
+        assertEquals(initialCandy.quantity - 3500, bankChange[0].amount.quantity)
+    }
+
+    @Test
+    fun `cannot pay more than we have`() {
+        val payments = listOf(
+            GoodyPayment(alice, Amount(initialCandy.quantity, NOUGAT)),
+            GoodyPayment(bob, Amount(1, NOUGAT))
+        )
+        val future = bankOfGoodiesNode.startFlow(GoodyBatchTransferFlow(payments))
+        mockNet.runNetwork()
+        assertFailsWith<InsufficientGoodiesException> {
+            future.getOrThrow()
+        }
+    }
+
+    @Test
+    fun `cannot pay with more than one type of candy`() {
+        val payments = listOf(
+            GoodyPayment(alice, Amount(1, NOUGAT)),
+            GoodyPayment(bob, Amount(1, Candy("Toffee")))
+        )
+        val future = bankOfGoodiesNode.startFlow(GoodyBatchTransferFlow(payments))
+        mockNet.runNetwork()
+        assertFailsWith<IllegalArgumentException> {
+            future.getOrThrow()
+        }
+    }
+}
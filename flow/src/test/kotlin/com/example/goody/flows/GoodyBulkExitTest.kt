@@ -0,0 +1,84 @@
+package com.example.goody.flows
+
+import com.example.goody.BOG_NAME
+import com.example.goody.GoodyIssuance
+import com.example.goody.GoodyRedemption
+import com.example.goody.contracts.Candy
+import com.example.goody.contracts.Goody
+import net.corda.core.contracts.Amount
+import net.corda.core.identity.Party
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.core.utilities.getOrThrow
+import net.corda.testing.node.MockNetwork
+import net.corda.testing.node.StartedMockNode
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+class GoodyBulkExitTest {
+    private companion object {
+        private val NOUGAT = Candy("Nougat")
+        private val TOFFEE = Candy("Toffee")
+        private val REFERENCES = List(5) { OpaqueBytes(byteArrayOf(0x65, 0x33, it.toByte())) }
+    }
+
+    private lateinit var mockNet: MockNetwork
+    private lateinit var bankOfGoodiesNode: StartedMockNode
+    private lateinit var bankOfGoodies: Party
+
+    @Before
+    fun start() {
+        mockNet = MockNetwork(
+            cordappPackages = listOf("com.example.goody.contracts", "com.example.goody.schemas")
+        )
+        bankOfGoodiesNode = mockNet.createPartyNode(BOG_NAME)
+        bankOfGoodies = bankOfGoodiesNode.info.identityFromX500Name(BOG_NAME)
+        val issuances = REFERENCES.flatMap { reference ->
+            listOf(GoodyIssuance(Amount(100, NOUGAT), reference), GoodyIssuance(Amount(50, TOFFEE), reference))
+        }
+        val future = bankOfGoodiesNode.startFlow(GoodyBulkIssueFlow(issuances, mockNet.defaultNotaryIdentity))
+        mockNet.runNetwork()
+        future.getOrThrow()
+    }
+
+    @After
+    fun cleanUp() {
+        mockNet.stopNodes()
+    }
+
+    @Test
+    fun `exit many references in one transaction`() {
+        val redemptions = REFERENCES.map { GoodyRedemption(it, Amount(40, NOUGAT)) } + GoodyRedemption(REFERENCES[0], Amount(50, TOFFEE))
+        val future = bankOfGoodiesNode.startFlow(GoodyBulkExitFlow(redemptions))
+        mockNet.runNetwork()
+        val exitTx = future.getOrThrow().tx
+
+        assertEquals(REFERENCES.size + 1, exitTx.inputs.size)
+        assertEquals(REFERENCES.size + 1, exitTx.commands.count { it.value is Goody.Commands.Exit })
+        assertEquals(1, exitTx.commands.count { it.value is Goody.Commands.Move })
+
+        val change = exitTx.outputsOfType<Goody.State>()
+        assertEquals(REFERENCES.size, change.size)
+        assertTrue(change.all { it.amount.quantity == 60L && it.amount.token.product == NOUGAT && it.owner == bankOfGoodies })
+    }
+
+    @Test
+    fun `redemptions of the same reference are combined`() {
+        val redemptions = listOf(GoodyRedemption(REFERENCES[0], Amount(30, NOUGAT)), GoodyRedemption(REFERENCES[0], Amount(70, NOUGAT)))
+        val future = bankOfGoodiesNode.startFlow(GoodyBulkExitFlow(redemptions))
+        mockNet.runNetwork()
+        val exitTx = future.getOrThrow().tx
+
+        assertEquals(1, exitTx.commands.count { it.value is Goody.Commands.Exit })
+        assertTrue(exitTx.outputsOfType<Goody.State>().isEmpty())
+    }
+
+    @Test(expected = InsufficientGoodiesException::class)
+    fun `we cannot exit more goodies than exist for a reference`() {
+        val redemptions = listOf(GoodyRedemption(REFERENCES[0], Amount(40, NOUGAT)), GoodyRedemption(REFERENCES[1], Amount(101, NOUGAT)))
+        val future = bankOfGoodiesNode.startFlow(GoodyBulkExitFlow(redemptions))
+        mockNet.runNetwork()
+        future.getOrThrow()
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.goody.flows
+
+import com.example.goody.BOG_NAME
+import com.example.goody.GoodyIssuance
+import com.example.goody.assertFail
+import com.example.goody.contracts.Candy
+import com.example.goody.contracts.Goody
+import net.corda.core.contracts.Amount
+import net.corda.core.identity.Party
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.core.utilities.getOrThrow
+import net.corda.core.utilities.loggerFor
+import net.corda.testing.core.ALICE_NAME
+import net.corda.testing.core.singleIdentity
+import net.corda.testing.node.MockNetwork
+import net.corda.testing.node.StartedMockNode
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+class GoodyBulkIssueTest {
+    private companion object {
+        private val log = loggerFor<GoodyBulkIssueTest>()
+        private val NOUGAT = Candy("Nougat")
+        private val TOFFEE = Candy("Toffee")
+        private val FUDGE = Candy("Fudge")
+        private val GOODY_REFERENCE = OpaqueBytes(byteArrayOf(0x65, 0x33, 0x00, 0x24, 0x7C, 0x69))
+        private val OTHER_REFERENCE = OpaqueBytes(byteArrayOf(0x7E, 0x50, 0x3F, 0x18, 0x0E, 0x11))
+    }
+
+    private lateinit var mockNet: MockNetwork
+    private lateinit var bankOfGoodiesNode: StartedMockNode
+    private lateinit var bankOfGoodies: Party
+    private lateinit var aliceNode: StartedMockNode
+    private lateinit var alice: Party
+
+    @Before
+    fun start() {
+        mockNet = MockNetwork(
+            cordappPackages = listOf("com.example.goody.contracts", "com.example.goody.schemas")
+        )
+        bankOfGoodiesNode = mockNet.createPartyNode(BOG_NAME)
+        bankOfGoodies = bankOfGoodiesNode.info.identityFromX500Name(BOG_NAME)
+        aliceNode = mockNet.createPartyNode(ALICE_NAME)
+        alice = aliceNode.info.singleIdentity()
+    }
+
+    @After
+    fun cleanUp() {
+        mockNet.stopNodes()
+    }
+
+    @Test
+    fun `issue many goodies in one transaction`() {
+        val issuances = listOf(
+            GoodyIssuance(Amount(1002, NOUGAT), GOODY_REFERENCE),
+            GoodyIssuance(Amount(350, TOFFEE), GOODY_REFERENCE),
+            GoodyIssuance(Amount(75, TOFFEE), OTHER_REFERENCE),
+            GoodyIssuance(Amount(12, FUDGE), GOODY_REFERENCE, alice)
+        )
+        val future = bankOfGoodiesNode.startFlow(GoodyBulkIssueFlow(issuances, mockNet.defaultNotaryIdentity))
+        mockNet.runNetwork()
+        val issueTx = future.getOrThrow()
+        log.info("Bulk Issue TX: {}", issueTx)
+
+        assertEquals(1, issueTx.tx.commands.size)
+        val output = issueTx.tx.outputsOfType<Goody.State>().groupBy(Goody.State::owner)
+        val bankGoodies = output[bankOfGoodies] ?: assertFail("Bank has issued no goodies")
+        assertEquals(3, bankGoodies.size)
+        assertTrue(bankGoodies.all { it.isIssuedBy(bankOfGoodies) })
+        assertEquals(setOf(NOUGAT, TOFFEE), bankGoodies.map { it.amount.token.product }.toSet())
+
+        val aliceGoodies = output[alice] ?: assertFail("Alice has received no goodies")
+        assertEquals(1, aliceGoodies.size)
+        with(aliceGoodies[0].amount) {
+            assertEquals(12, quantity)
+            assertEquals(FUDGE, token.product)
+            assertEquals(bankOfGoodies, token.issuer.party)
+        }
+    }
+
+    @Test
+    fun `bulk issued goodies can be transferred`() {
+        val issuances = listOf(
+            GoodyIssuance(Amount(500, NOUGAT), GOODY_REFERENCE),
+            GoodyIssuance(Amount(500, NOUGAT), GOODY_REFERENCE)
+        )
+        val issueFuture = bankOfGoodiesNode.startFlow(GoodyBulkIssueFlow(issuances, mockNet.defaultNotaryIdentity))
+        mockNet.runNetwork()
+        issueFuture.getOrThrow()
+
+        val transferFuture = bankOfGoodiesNode.startFlow(GoodyTransferFlow(Amount(1000, NOUGAT), alice))
+        mockNet.runNetwork()
+        val aliceGoodies = transferFuture.getOrThrow().tx.outputsOfType<Goody.State>().filter { it.owner == alice }
+        assertEquals(1, aliceGoodies.size)
+        assertEquals(1000, aliceGoodies[0].amount.quantity)
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.goody.flows
+
+import co.paralleluniverse.fibers.Suspendable
+import com.example.goody.BOG_NAME
+import com.example.goody.GoodyDenominations
+import com.example.goody.GoodyMetrics
+import com.example.goody.GoodyOps
+import com.example.goody.GoodyPayment
+import com.example.goody.NotaryRetryPolicy
+import com.example.goody.contracts.Candy
+import com.example.goody.flows.AbstractGoodyFlow.Companion.FINALISING
+import com.example.goody.flows.AbstractGoodyFlow.Companion.SIGNING
+import com.example.goody.flows.AbstractGoodyFlow.Companion.STARTING
+import net.corda.core.contracts.Amount
+import net.corda.core.flows.FlowLogic
+import net.corda.core.identity.Party
+import net.corda.core.transactions.SignedTransaction
+import net.corda.core.transactions.TransactionBuilder
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.core.utilities.ProgressTracker
+import net.corda.core.utilities.getOrThrow
+import net.corda.core.utilities.loggerFor
+import net.corda.testing.core.ALICE_NAME
+import net.corda.testing.core.singleIdentity
+import net.corda.testing.node.MockNetwork
+import net.corda.testing.node.StartedMockNode
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.security.PublicKey
+
+/**
+ * Measures the largest checkpoint that the transfer, batch transfer and exit
+ * flows write while they wait for the notary and their counterparties.
+ *
+ * Each is compared with a [RetainedBuilderFlow] that selects and builds the
+ * same transaction but keeps its [TransactionBuilder] and selected goodies in
+ * scope while it finalises, as these flows did before their building and
+ * signing moved into a `buildAndSign` method of their own. That measurement is the budget, so the Goody
+ * flows must never checkpoint more than the flows they replaced.
+ */
+class GoodyCheckpointSizeTest {
+    private companion object {
+        private val log = loggerFor<GoodyCheckpointSizeTest>()
+        private val NOUGAT = Candy("Nougat")
+        private val GOODY_REFERENCE = OpaqueBytes(byteArrayOf(0x65, 0x33, 0x43))
+        private const val MAX_ROUNDS = 1000
+    }
+
+    private enum class Kind { TRANSFER, BATCH_TRANSFER, EXIT }
+
+    /**
+     * Builds, signs and finalises a transaction of [kind] in the same lambda,
+     * as the Goody flows did before, so that the builder and the goodies
+     * selected for it are still live in the checkpoints written during finality.
+     */
+    private class RetainedBuilderFlow(private val kind: Kind, private val amount: Amount<Candy>, private val recipient: Party) : AbstractGoodyFlow(tracker()) {
+        private companion object {
+            private fun tracker() = ProgressTracker(STARTING, SIGNING, FINALISING)
+        }
+
+        @Suspendable
+        override fun call(): SignedTransaction = withNotaryRetry(NotaryRetryPolicy.NONE) { excludedRefs ->
+            progressTracker.currentStep = STARTING
+            val builder = TransactionBuilder(notary = null)
+            val (participants, keysForSigning) = timed<Pair<Set<Party>, Collection<PublicKey>>>(GoodyMetrics.Step.BUILDING) {
+                when (kind) {
+                    Kind.TRANSFER -> Pair(setOf(recipient), GoodyOps.generateTransfer(serviceHub, builder, recipient, amount, excludedRefs = excludedRefs).second)
+                    Kind.BATCH_TRANSFER -> {
+                        val payments = listOf(GoodyPayment(recipient, amount))
+                        Pair(setOf(recipient), GoodyOps.generateBatchTransfer(serviceHub, builder, payments, excludedRefs = excludedRefs).second)
+                    }
+                    Kind.EXIT -> GoodyOps.generateExit(serviceHub, builder, ourIdentity.ref(GOODY_REFERENCE), amount, excludedRefs)
+                }
+            }
+
+            progressTracker.currentStep = SIGNING
+            val tx = timed(GoodyMetrics.Step.SIGNING) { serviceHub.signInitialTransaction(builder, keysForSigning.toList()) }
+
+            progressTracker.currentStep = FINALISING
+            finaliseTx(tx, participants, "Unable to notarise $kind").also { check(builder.inputStates().size == it.inputs.size) }
+        }
+    }
+
+    private lateinit var mockNet: MockNetwork
+    private lateinit var bankOfGoodiesNode: StartedMockNode
+    private lateinit var alice: Party
+
+    @Before
+    fun start() {
+        mockNet = MockNetwork(
+            cordappPackages = listOf("com.example.goody.contracts", "com.example.goody.schemas")
+        )
+        bankOfGoodiesNode = mockNet.createPartyNode(BOG_NAME)
+        alice = mockNet.createPartyNode(ALICE_NAME).info.singleIdentity()
+    }
+
+    @After
+    fun cleanUp() {
+        mockNet.stopNodes()
+    }
+
+    private fun largestCheckpointBytes(node: StartedMockNode): Long = node.transaction {
+        node.services.jdbcSession().prepareStatement("SELECT MAX(LENGTH(checkpoint_value)) FROM node_checkpoints").use { statement ->
+            statement.executeQuery().use { results -> if (results.next()) results.getLong(1) else 0L }
+        }
+    }
+
+    /**
+     * Issues [inputs] goodies of one candy each, and then runs [flow] to spend
+     * all of them, pumping one message at a time so that every checkpoint the
+     * flow writes can be measured.
+     */
+    private fun checkpointBytes(inputs: Int, flow: FlowLogic<SignedTransaction>): Long {
+        val issue = bankOfGoodiesNode.startFlow(GoodyIssueFlow(Amount(inputs.toLong(), NOUGAT), GOODY_REFERENCE, mockNet.defaultNotaryIdentity, GoodyDenominations.equalBuckets(inputs)))
+        mockNet.runNetwork()
+        issue.getOrThrow()
+
+        val future = bankOfGoodiesNode.startFlow(flow)
+        var largest = 0L
+        var rounds = 0
+        while (!future.isDone) {
+            assertTrue("${flow.javaClass.simpleName} did not complete", ++rounds <= MAX_ROUNDS)
+            largest = maxOf(largest, largestCheckpointBytes(bankOfGoodiesNode))
+            mockNet.runNetwork(1)
+        }
+        assertEquals(inputs, future.getOrThrow().inputs.size)
+        return largest
+    }
+
+    private fun goodyFlow(kind: Kind, amount: Amount<Candy>): FlowLogic<SignedTransaction> = when (kind) {
+        Kind.TRANSFER -> GoodyTransferFlow(amount, alice)
+        Kind.BATCH_TRANSFER -> GoodyBatchTransferFlow(listOf(GoodyPayment(alice, amount)))
+        Kind.EXIT -> GoodyExitFlow(amount, GOODY_REFERENCE)
+    }
+
+    private fun assertWithinBudget(kind: Kind, inputs: Int) {
+        val amount = Amount(inputs.toLong(), NOUGAT)
+        val budget = checkpointBytes(inputs, RetainedBuilderFlow(kind, amount, alice))
+        val bytes = checkpointBytes(inputs, goodyFlow(kind, amount))
+        log.info("Largest checkpoint for {} of {} input(s): {} bytes, against {} bytes with the builder retained", kind, inputs, bytes, budget)
+        assertTrue("Checkpoint of $bytes bytes for $kind of $inputs input(s) exceeds budget of $budget bytes", bytes <= budget)
+    }
+
+    @Test
+    fun `checkpoint of a transfer of 1 input`() = assertWithinBudget(Kind.TRANSFER, 1)
+
+    @Test
+    fun `checkpoint of a transfer of 100 inputs`() = assertWithinBudget(Kind.TRANSFER, 100)
+
+    @Test
+    fun `checkpoint of a transfer of 1000 inputs`() = assertWithinBudget(Kind.TRANSFER, 1000)
+
+    @Test
+    fun `checkpoint of a batch transfer of 1 input`() = assertWithinBudget(Kind.BATCH_TRANSFER, 1)
+
+    @Test
+    fun `checkpoint of a batch transfer of 100 inputs`() = assertWithinBudget(Kind.BATCH_TRANSFER, 100)
+
+    @Test
+    fun `checkpoint of an exit of 1 input`() = assertWithinBudget(Kind.EXIT, 1)
+
+    @Test
+    fun `checkpoint of an exit of 100 inputs`() = assertWithinBudget(Kind.EXIT, 100)
+}
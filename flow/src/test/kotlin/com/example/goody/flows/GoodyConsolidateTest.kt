@@ -0,0 +1,134 @@
+package com.example.goody.flows
+
+import co.paralleluniverse.fibers.Suspendable
+import com.example.goody.BOG_NAME
+import com.example.goody.GoodyIssuance
+import com.example.goody.GoodyOps
+import com.example.goody.contracts.Candy
+import com.example.goody.contracts.Goody
+import com.example.goody.contracts.issuedBy
+import net.corda.core.contracts.Amount
+import net.corda.core.flows.FinalityFlow
+import net.corda.core.flows.FlowLogic
+import net.corda.core.identity.AnonymousParty
+import net.corda.core.identity.Party
+import net.corda.core.node.services.queryBy
+import net.corda.core.transactions.TransactionBuilder
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.core.utilities.getOrThrow
+import net.corda.testing.core.ALICE_NAME
+import net.corda.testing.core.singleIdentity
+import net.corda.testing.node.MockNetwork
+import net.corda.testing.node.StartedMockNode
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+class GoodyConsolidateTest {
+    private companion object {
+        private val NOUGAT = Candy("Nougat")
+        private val TOFFEE = Candy("Toffee")
+        private val GOODY_REFERENCE = OpaqueBytes(byteArrayOf(0x65, 0x33, 0x00, 0x24, 0x7C, 0x69))
+    }
+
+    /**
+     * Issues goodies of the given [quantities] to a new confidential identity
+     * of our own, and returns it.
+     */
+    private class IssueToConfidentialIdentityFlow(private val quantities: List<Long>, private val notary: Party) : FlowLogic<AnonymousParty>() {
+        @Suspendable
+        override fun call(): AnonymousParty {
+            val owner = AnonymousParty(serviceHub.keyManagementService.freshKeyAndCert(ourIdentityAndCert, false).owningKey)
+            val states = quantities.map { Goody.State(owner, Amount(it, NOUGAT) issuedBy ourIdentity.ref(GOODY_REFERENCE)) }
+            val builder = TransactionBuilder(notary)
+            val signers = GoodyOps.generateIssue(builder, states, notary)
+            subFlow(FinalityFlow(serviceHub.signInitialTransaction(builder, signers)))
+            return owner
+        }
+    }
+
+    private lateinit var mockNet: MockNetwork
+    private lateinit var bankOfGoodiesNode: StartedMockNode
+    private lateinit var aliceNode: StartedMockNode
+
+    @Before
+    fun start() {
+        mockNet = MockNetwork(
+            cordappPackages = listOf("com.example.goody.contracts", "com.example.goody.schemas")
+        )
+        bankOfGoodiesNode = mockNet.createPartyNode(BOG_NAME)
+        aliceNode = mockNet.createPartyNode(ALICE_NAME)
+        val issuances = List(10) { GoodyIssuance(Amount(10, NOUGAT), GOODY_REFERENCE) } +
+            List(3) { GoodyIssuance(Amount(5, TOFFEE), GOODY_REFERENCE) }
+        val future = bankOfGoodiesNode.startFlow(GoodyBulkIssueFlow(issuances, mockNet.defaultNotaryIdentity))
+        mockNet.runNetwork()
+        future.getOrThrow()
+    }
+
+    @After
+    fun cleanUp() {
+        mockNet.stopNodes()
+    }
+
+    private fun goodies(candy: Candy): List<Goody.State> = bankOfGoodiesNode.transaction {
+        bankOfGoodiesNode.services.vaultService.queryBy<Goody.State>().states
+            .map { it.state.data }
+            .filter { it.amount.token.product == candy }
+    }
+
+    @Test
+    fun `consolidate goodies in chunks`() {
+        val future = bankOfGoodiesNode.startFlow(GoodyConsolidateFlow(NOUGAT, 4))
+        mockNet.runNetwork()
+        val report = future.getOrThrow()
+
+        assertEquals(10, report.statesBefore)
+        assertEquals(3, report.statesAfter)
+        assertEquals(3, report.transactionIds.size)
+
+        val nougat = goodies(NOUGAT)
+        assertEquals(listOf(20L, 40L, 40L), nougat.map { it.amount.quantity }.sorted())
+        assertEquals(3, goodies(TOFFEE).size)
+    }
+
+    @Test
+    fun `consolidate every candy`() {
+        val future = bankOfGoodiesNode.startFlow(GoodyConsolidateFlow(null))
+        mockNet.runNetwork()
+        val report = future.getOrThrow()
+
+        assertEquals(13, report.statesBefore)
+        assertEquals(2, report.statesAfter)
+        assertEquals(listOf(100L), goodies(NOUGAT).map { it.amount.quantity })
+        assertEquals(listOf(15L), goodies(TOFFEE).map { it.amount.quantity })
+    }
+
+    @Test
+    fun `consolidated goodies can be transferred`() {
+        val consolidateFuture = bankOfGoodiesNode.startFlow(GoodyConsolidateFlow(NOUGAT))
+        mockNet.runNetwork()
+        consolidateFuture.getOrThrow()
+
+        val transferFuture = bankOfGoodiesNode.startFlow(GoodyTransferFlow(Amount(60, NOUGAT), aliceNode.info.singleIdentity()))
+        mockNet.runNetwork()
+        assertEquals(1, transferFuture.getOrThrow().inputs.size)
+    }
+
+    @Test
+    fun `goodies of a confidential identity stay with it`() {
+        val issueFuture = bankOfGoodiesNode.startFlow(IssueToConfidentialIdentityFlow(listOf(7L, 8L), mockNet.defaultNotaryIdentity))
+        mockNet.runNetwork()
+        val confidential = issueFuture.getOrThrow()
+
+        val future = bankOfGoodiesNode.startFlow(GoodyConsolidateFlow(NOUGAT))
+        mockNet.runNetwork()
+        val report = future.getOrThrow()
+
+        assertEquals(12, report.statesBefore)
+        assertEquals(2, report.statesAfter)
+        val owners = goodies(NOUGAT).associate { it.amount.quantity to it.owner }
+        assertEquals(confidential, owners[15L])
+        assertEquals(bankOfGoodiesNode.info.identityFromX500Name(BOG_NAME), owners[100L])
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.goody.flows
+
+import com.example.goody.BOG_NAME
+import com.example.goody.GoodyIssuance
+import com.example.goody.contracts.Candy
+import com.example.goody.contracts.Goody
+import net.corda.core.contracts.Amount
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.core.utilities.getOrThrow
+import net.corda.testing.core.ALICE_NAME
+import net.corda.testing.core.singleIdentity
+import net.corda.testing.node.MockNetwork
+import net.corda.testing.node.StartedMockNode
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+class GoodyFragmentedVaultTest {
+    private companion object {
+        private const val ISSUES = 6
+        private const val STATES_PER_ISSUE = 1000
+        private val NOUGAT = Candy("Nougat")
+        private val GOODY_REFERENCE = OpaqueBytes(byteArrayOf(0x65, 0x33, 0x00, 0x24, 0x7C, 0x69))
+    }
+
+    private lateinit var mockNet: MockNetwork
+    private lateinit var bankOfGoodiesNode: StartedMockNode
+    private lateinit var aliceNode: StartedMockNode
+
+    @Before
+    fun start() {
+        mockNet = MockNetwork(
+            cordappPackages = listOf("com.example.goody.contracts", "com.example.goody.schemas")
+        )
+        bankOfGoodiesNode = mockNet.createPartyNode(BOG_NAME)
+        aliceNode = mockNet.createPartyNode(ALICE_NAME)
+        repeat(ISSUES) {
+            val issuances = List(STATES_PER_ISSUE) { GoodyIssuance(Amount(1, NOUGAT), GOODY_REFERENCE) }
+            val future = bankOfGoodiesNode.startFlow(GoodyBulkIssueFlow(issuances, mockNet.defaultNotaryIdentity))
+            mockNet.runNetwork()
+            future.getOrThrow()
+        }
+    }
+
+    @After
+    fun cleanUp() {
+        mockNet.stopNodes()
+    }
+
+    @Test
+    fun `transfer more goodies than fit in a few pages of candidates`() {
+        val alice = aliceNode.info.singleIdentity()
+        val amount = Amount(5500, NOUGAT)
+        val future = bankOfGoodiesNode.startFlow(GoodyTransferFlow(amount, alice))
+        mockNet.runNetwork()
+        val transfer = future.getOrThrow()
+
+        assertEquals(5500, transfer.inputs.size)
+        val received = transfer.tx.outputsOfType<Goody.State>().filter { it.owner == alice }.sumBy { it.amount.quantity.toInt() }
+        assertEquals(5500, received)
+    }
+}
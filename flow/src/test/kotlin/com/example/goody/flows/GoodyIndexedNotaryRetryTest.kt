@@ -0,0 +1,28 @@
+package com.example.goody.flows
+
+import com.example.goody.contracts.Candy
+import net.corda.core.contracts.Amount
+import net.corda.core.utilities.NonEmptySet
+import net.corda.core.utilities.getOrThrow
+import org.junit.Test
+import java.util.*
+import kotlin.test.assertFailsWith
+
+/**
+ * Runs the [GoodyNotaryRetryTest]s with the [com.example.goody.services.GoodyUtxoIndex]
+ * installed, so that goodies are selected from the index.
+ */
+class GoodyIndexedNotaryRetryTest : GoodyNotaryRetryTest() {
+    override val cordappPackages = listOf("com.example.goody.contracts", "com.example.goody.schemas", "com.example.goody.services")
+
+    @Test
+    fun `losing every race for goodies is reported as contention`() {
+        // These are our only goodies, and another flow may yet release them.
+        bankOfGoodiesNode.transaction {
+            bankOfGoodiesNode.services.vaultService.softLockReserve(UUID.randomUUID(), NonEmptySet.copyOf(spentRefs))
+        }
+
+        val future = bankOfGoodiesNode.startFlow(GoodyTransferFlow(Amount(10, Candy("Nougat")), alice))
+        assertFailsWith<GoodySelectionContentionException> { future.getOrThrow() }
+    }
+}
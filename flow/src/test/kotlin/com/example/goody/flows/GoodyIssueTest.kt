@@ -1,6 +1,7 @@
 package com.example.goody.flows
 
 import com.example.goody.BOG_NAME
+import com.example.goody.GoodyDenominations
 import com.example.goody.assertFail
 import com.example.goody.contracts.Candy
 import com.example.goody.contracts.Goody
@@ -60,4 +61,15 @@ class GoodyIssueTest {
             assertEquals(GOODY_REFERENCE, token.issuer.reference)
         }
     }
+
+    @Test
+    fun `issue goodies in denominations`() {
+        val future = bankOfGoodiesNode.startFlow(GoodyIssueFlow(Amount(1002, TOFFEE), GOODY_REFERENCE, notary, GoodyDenominations.equalBuckets(4)))
+        mockNet.runNetwork()
+        val issueTx = future.getOrThrow()
+
+        val goodies = issueTx.tx.outputsOfType<Goody.State>()
+        assertEquals(listOf(251L, 251L, 250L, 250L), goodies.map { it.amount.quantity })
+        assertTrue(goodies.all { it.owner == bankOfGoodies && it.amount.token.issuer.reference == GOODY_REFERENCE })
+    }
 }
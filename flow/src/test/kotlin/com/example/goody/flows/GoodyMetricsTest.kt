@@ -0,0 +1,76 @@
+package com.example.goody.flows
+
+import com.example.goody.BOG_NAME
+import com.example.goody.GoodyMetrics
+import com.example.goody.contracts.Candy
+import net.corda.core.contracts.Amount
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.core.utilities.getOrThrow
+import net.corda.testing.node.MockNetwork
+import net.corda.testing.node.StartedMockNode
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+class GoodyMetricsTest {
+    private companion object {
+        private val FUDGE = Candy("Fudge")
+        private val REFERENCE = OpaqueBytes.of(0x4d)
+    }
+
+    private lateinit var mockNet: MockNetwork
+    private lateinit var bankOfGoodiesNode: StartedMockNode
+
+    @Before
+    fun start() {
+        mockNet = MockNetwork(
+            cordappPackages = listOf("com.example.goody.contracts", "com.example.goody.schemas")
+        )
+        bankOfGoodiesNode = mockNet.createPartyNode(BOG_NAME)
+        val future = bankOfGoodiesNode.startFlow(GoodyIssueFlow(Amount(100, FUDGE), REFERENCE, mockNet.defaultNotaryIdentity))
+        mockNet.runNetwork()
+        future.getOrThrow()
+    }
+
+    @After
+    fun cleanUp() {
+        mockNet.stopNodes()
+    }
+
+    private fun report(): GoodyMetrics.Report {
+        val future = bankOfGoodiesNode.startFlow(GoodyMetricsFlow())
+        mockNet.runNetwork()
+        return future.getOrThrow()
+    }
+
+    private fun GoodyMetrics.Report.count(timer: String) = timers[timer]?.count ?: 0L
+
+    @Test
+    fun `exit records each step`() {
+        val before = report()
+        val future = bankOfGoodiesNode.startFlow(GoodyExitFlow(Amount(40, FUDGE), REFERENCE))
+        mockNet.runNetwork()
+        future.getOrThrow()
+        val after = report()
+
+        for (step in GoodyMetrics.Step.values()) {
+            val timer = "steps.${step.metricName}"
+            assertEquals("Timer $timer", before.count(timer) + 1, after.count(timer))
+        }
+        assertEquals(before.count("flows.GoodyExitFlow") + 1, after.count("flows.GoodyExitFlow"))
+    }
+
+    @Test
+    fun `insufficient goodies are counted`() {
+        val before = report().counters.getValue("errors.insufficientGoodies")
+        val future = bankOfGoodiesNode.startFlow(GoodyExitFlow(Amount(101, FUDGE), REFERENCE))
+        mockNet.runNetwork()
+        try {
+            future.getOrThrow()
+            fail("Exit should have failed")
+        } catch (e: InsufficientGoodiesException) {
+        }
+        assertEquals(before + 1, report().counters.getValue("errors.insufficientGoodies"))
+    }
+}
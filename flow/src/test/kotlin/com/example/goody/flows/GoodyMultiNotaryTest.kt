@@ -0,0 +1,78 @@
+package com.example.goody.flows
+
+import com.example.goody.BOG_NAME
+import com.example.goody.GoodyIssuance
+import com.example.goody.GoodyMetrics
+import com.example.goody.contracts.Candy
+import net.corda.core.contracts.Amount
+import net.corda.core.identity.CordaX500Name
+import net.corda.core.identity.Party
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.core.utilities.getOrThrow
+import net.corda.testing.core.ALICE_NAME
+import net.corda.testing.core.DUMMY_NOTARY_NAME
+import net.corda.testing.core.singleIdentity
+import net.corda.testing.node.MockNetwork
+import net.corda.testing.node.MockNetworkNotarySpec
+import net.corda.testing.node.StartedMockNode
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+class GoodyMultiNotaryTest {
+    private companion object {
+        private val NOUGAT = Candy("Nougat")
+        private val GOODY_REFERENCE = OpaqueBytes(byteArrayOf(0x65, 0x33, 0x49))
+        private val OTHER_NOTARY_NAME = CordaX500Name("Other Notary Service", "Zurich", "CH")
+    }
+
+    private lateinit var mockNet: MockNetwork
+    private lateinit var bankOfGoodiesNode: StartedMockNode
+    private lateinit var notary: Party
+    private lateinit var otherNotary: Party
+    private lateinit var alice: Party
+
+    @Before
+    fun start() {
+        mockNet = MockNetwork(
+            cordappPackages = listOf("com.example.goody.contracts", "com.example.goody.schemas"),
+            notarySpecs = listOf(MockNetworkNotarySpec(DUMMY_NOTARY_NAME), MockNetworkNotarySpec(OTHER_NOTARY_NAME))
+        )
+        bankOfGoodiesNode = mockNet.createPartyNode(BOG_NAME)
+        notary = mockNet.notaryNodes[0].info.singleIdentity()
+        otherNotary = mockNet.notaryNodes[1].info.singleIdentity()
+        alice = mockNet.createPartyNode(ALICE_NAME).info.singleIdentity()
+    }
+
+    @After
+    fun cleanUp() {
+        mockNet.stopNodes()
+    }
+
+    private fun issue(quantities: List<Long>, notary: Party) {
+        val issuances = quantities.map { GoodyIssuance(Amount(it, NOUGAT), GOODY_REFERENCE) }
+        val future = bankOfGoodiesNode.startFlow(GoodyBulkIssueFlow(issuances, notary))
+        mockNet.runNetwork()
+        future.getOrThrow()
+    }
+
+    private fun spuriousLocksAvoided() = GoodyMetrics.report().counters.getValue("selection.spuriousLocksAvoided")
+
+    @Test
+    fun `goodies covering the amount under one notary are found after the first pages`() {
+        // The first two pages of candidates together hold 400, but neither
+        // notary's share of them covers 300 by itself.
+        issue(List(200) { 1L }, notary)
+        issue(List(200) { 1L }, otherNotary)
+        issue(listOf(300L), otherNotary)
+
+        val avoidedBefore = spuriousLocksAvoided()
+        val future = bankOfGoodiesNode.startFlow(GoodyTransferFlow(Amount(300, NOUGAT), alice))
+        mockNet.runNetwork()
+        val transfer = future.getOrThrow()
+        assertEquals(otherNotary, transfer.notary)
+        // The goodies under the first notary were candidates, but were left unlocked.
+        assertTrue(spuriousLocksAvoided() > avoidedBefore)
+    }
+}
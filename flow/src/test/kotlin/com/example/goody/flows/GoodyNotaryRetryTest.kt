@@ -0,0 +1,129 @@
+package com.example.goody.flows
+
+import co.paralleluniverse.fibers.Suspendable
+import com.example.goody.BOG_NAME
+import com.example.goody.GoodyOps
+import com.example.goody.GoodySelection
+import com.example.goody.GoodySelectionStrategy
+import com.example.goody.NotaryRetryPolicy
+import com.example.goody.contracts.Candy
+import com.example.goody.contracts.Goody
+import net.corda.core.contracts.Amount
+import net.corda.core.contracts.StateRef
+import net.corda.core.flows.FlowLogic
+import net.corda.core.flows.NotaryFlow
+import net.corda.core.identity.Party
+import net.corda.core.transactions.SignedTransaction
+import net.corda.core.transactions.TransactionBuilder
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.core.utilities.getOrThrow
+import net.corda.testing.core.ALICE_NAME
+import net.corda.testing.core.singleIdentity
+import net.corda.testing.node.MockNetwork
+import net.corda.testing.node.StartedMockNode
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.time.Duration
+import kotlin.test.assertFailsWith
+
+open class GoodyNotaryRetryTest {
+    private companion object {
+        private val NOUGAT = Candy("Nougat")
+        private val GOODY_REFERENCE = OpaqueBytes(byteArrayOf(0x65, 0x33, 0x52))
+        private val RETRY_POLICY = NotaryRetryPolicy(3, Duration.ofMillis(10), Duration.ofMillis(50))
+    }
+
+    /**
+     * Spends some of our goodies as far as the notary is concerned, without
+     * telling our vault, just as a competing transaction would.
+     */
+    private class NotariseOnlyFlow(private val amount: Amount<Candy>, private val recipient: Party) : FlowLogic<Set<StateRef>>() {
+        @Suspendable
+        override fun call(): Set<StateRef> {
+            val (builder, keys) = GoodyOps.generateTransfer(serviceHub, TransactionBuilder(notary = null), recipient, amount)
+            val tx = serviceHub.signInitialTransaction(builder, keys)
+            subFlow(NotaryFlow.Client(tx))
+            GoodySelection.getInstance().release(serviceHub, runId.uuid)
+            return tx.inputs.toSet()
+        }
+    }
+
+    protected open val cordappPackages = listOf("com.example.goody.contracts", "com.example.goody.schemas")
+
+    private lateinit var mockNet: MockNetwork
+    protected lateinit var bankOfGoodiesNode: StartedMockNode
+    private lateinit var aliceNode: StartedMockNode
+    protected lateinit var alice: Party
+    protected lateinit var spentRefs: Set<StateRef>
+
+    @Before
+    fun start() {
+        // Retrying flows sleep, so the network must run by itself rather than be pumped.
+        mockNet = MockNetwork(
+            cordappPackages = cordappPackages,
+            threadPerNode = true,
+            networkSendManuallyPumped = false
+        )
+        bankOfGoodiesNode = mockNet.createPartyNode(BOG_NAME)
+        aliceNode = mockNet.createPartyNode(ALICE_NAME)
+        alice = aliceNode.info.singleIdentity()
+        issue(Amount(10, NOUGAT))
+
+        val future = bankOfGoodiesNode.startFlow(NotariseOnlyFlow(Amount(10, NOUGAT), alice))
+        spentRefs = future.getOrThrow()
+    }
+
+    @After
+    fun cleanUp() {
+        mockNet.stopNodes()
+    }
+
+    private fun issue(amount: Amount<Candy>): SignedTransaction {
+        val future = bankOfGoodiesNode.startFlow(GoodyIssueFlow(amount, GOODY_REFERENCE, mockNet.defaultNotaryIdentity))
+        return future.getOrThrow()
+    }
+
+    @Test
+    fun `conflicts fail without a retry policy`() {
+        val future = bankOfGoodiesNode.startFlow(GoodyTransferFlow(Amount(10, NOUGAT), alice))
+        val e = assertFailsWith<GoodyNotaryConflictException> { future.getOrThrow() }
+        assertEquals(spentRefs, e.conflictingRefs)
+    }
+
+    @Test
+    fun `conflicting goodies are excluded on retry`() {
+        issue(Amount(10, NOUGAT))
+
+        val future = bankOfGoodiesNode.startFlow(GoodyTransferFlow(Amount(10, NOUGAT), alice, GoodySelectionStrategy.OLDEST_FIRST, RETRY_POLICY))
+        val transfer = future.getOrThrow()
+        assertTrue(transfer.inputs.none { it in spentRefs })
+    }
+
+    @Test
+    fun `goodies that did not conflict can be selected again on retry`() {
+        // The first attempt spends the conflicting 10 with the 6, and the retry needs the 6 again.
+        val six = issue(Amount(6, NOUGAT)).tx.outRef<Goody.State>(0).ref
+        val five = issue(Amount(5, NOUGAT)).tx.outRef<Goody.State>(0).ref
+
+        val future = bankOfGoodiesNode.startFlow(GoodyTransferFlow(Amount(11, NOUGAT), alice, GoodySelectionStrategy.OLDEST_FIRST, RETRY_POLICY))
+        val transfer = future.getOrThrow()
+        assertEquals(setOf(six, five), transfer.inputs.toSet())
+    }
+
+    @Test
+    fun `retries fail when no other goodies remain`() {
+        val future = bankOfGoodiesNode.startFlow(GoodyTransferFlow(Amount(10, NOUGAT), alice, GoodySelectionStrategy.OLDEST_FIRST, RETRY_POLICY))
+        assertFailsWith<InsufficientGoodiesException> { future.getOrThrow() }
+    }
+
+    @Test
+    fun `backoff is capped and jittered`() {
+        for (attempt in 1..40) {
+            val backoff = RETRY_POLICY.backoff(attempt)
+            assertTrue(backoff >= Duration.ofMillis(minOf(10L shl minOf(attempt - 1, 30), 25)))
+            assertTrue(backoff <= Duration.ofMillis(50))
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.goody.flows
+
+import com.example.goody.BOG_NAME
+import com.example.goody.GoodyIssuance
+import com.example.goody.contracts.Candy
+import com.example.goody.contracts.Goody
+import com.example.goody.contracts.GoodyConsolidationPolicy
+import net.corda.core.contracts.Amount
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.node.services.queryBy
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.core.utilities.getOrThrow
+import net.corda.testing.node.MockNetwork
+import net.corda.testing.node.StartedMockNode
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.time.Duration
+
+class GoodyScheduledConsolidationTest {
+    private companion object {
+        private val NOUGAT = Candy("Nougat")
+        private val GOODY_REFERENCE = OpaqueBytes(byteArrayOf(0x65, 0x33, 0x00, 0x24, 0x7C, 0x69))
+        private val INTERVAL = Duration.ofDays(1)
+    }
+
+    private lateinit var mockNet: MockNetwork
+    private lateinit var bankOfGoodiesNode: StartedMockNode
+
+    @Before
+    fun start() {
+        mockNet = MockNetwork(
+            cordappPackages = listOf("com.example.goody.contracts", "com.example.goody.schemas")
+        )
+        bankOfGoodiesNode = mockNet.createPartyNode(BOG_NAME)
+        val issuances = List(10) { GoodyIssuance(Amount(10, NOUGAT), GOODY_REFERENCE) }
+        val future = bankOfGoodiesNode.startFlow(GoodyBulkIssueFlow(issuances, mockNet.defaultNotaryIdentity))
+        mockNet.runNetwork()
+        future.getOrThrow()
+    }
+
+    @After
+    fun cleanUp() {
+        mockNet.stopNodes()
+    }
+
+    private fun createPolicy(threshold: Int): StateAndRef<GoodyConsolidationPolicy.State> {
+        val future = bankOfGoodiesNode.startFlow(GoodyConsolidationPolicyFlow(NOUGAT, threshold, 100, INTERVAL, mockNet.defaultNotaryIdentity))
+        mockNet.runNetwork()
+        return future.getOrThrow().tx.outRefsOfType<GoodyConsolidationPolicy.State>().single()
+    }
+
+    private fun runCheck(policy: StateAndRef<GoodyConsolidationPolicy.State>): StateAndRef<GoodyConsolidationPolicy.State> {
+        val future = bankOfGoodiesNode.startFlow(GoodyScheduledConsolidationFlow(policy.ref))
+        mockNet.runNetwork()
+        future.getOrThrow()
+        return bankOfGoodiesNode.transaction {
+            bankOfGoodiesNode.services.vaultService.queryBy<GoodyConsolidationPolicy.State>().states.single()
+        }
+    }
+
+    private fun goodyCount(): Int = bankOfGoodiesNode.transaction {
+        bankOfGoodiesNode.services.vaultService.queryBy<Goody.State>().states.size
+    }
+
+    @Test
+    fun `consolidate when over the threshold`() {
+        val policy = createPolicy(5)
+        val rescheduled = runCheck(policy)
+
+        assertEquals(1, goodyCount())
+        assertTrue(rescheduled.state.data.nextCheck.isAfter(policy.state.data.nextCheck))
+        assertEquals(policy.state.data, rescheduled.state.data.copy(nextCheck = policy.state.data.nextCheck))
+    }
+
+    @Test
+    fun `only reschedule when under the threshold`() {
+        val policy = createPolicy(20)
+        val rescheduled = runCheck(policy)
+
+        assertEquals(10, goodyCount())
+        assertTrue(rescheduled.state.data.nextCheck.isAfter(policy.state.data.nextCheck))
+    }
+
+    @Test
+    fun `reschedule after the previous check`() {
+        val policy = createPolicy(5).state.data
+        assertEquals(policy.nextCheck.plus(INTERVAL), policy.rescheduled(policy.nextCheck.minus(INTERVAL)).nextCheck)
+    }
+
+    @Test
+    fun `reschedule when consolidation fails`() {
+        // The total of these two goodies is too large to merge.
+        repeat(2) {
+            val issuance = GoodyIssuance(Amount(Long.MAX_VALUE / 2 + 1, NOUGAT), GOODY_REFERENCE)
+            val future = bankOfGoodiesNode.startFlow(GoodyBulkIssueFlow(listOf(issuance), mockNet.defaultNotaryIdentity))
+            mockNet.runNetwork()
+            future.getOrThrow()
+        }
+        val policy = createPolicy(5)
+        val rescheduled = runCheck(policy)
+
+        assertEquals(12, goodyCount())
+        assertTrue(rescheduled.state.data.nextCheck.isAfter(policy.state.data.nextCheck))
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.goody.flows
+
+import com.example.goody.BOG_NAME
+import com.example.goody.GoodyIssuance
+import com.example.goody.GoodySelectionStrategy
+import com.example.goody.GoodySelectionStrategy.*
+import com.example.goody.contracts.Candy
+import com.example.goody.contracts.Goody
+import net.corda.core.contracts.Amount
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.identity.Party
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.core.utilities.getOrThrow
+import net.corda.testing.core.ALICE_NAME
+import net.corda.testing.core.singleIdentity
+import net.corda.testing.node.MockNetwork
+import net.corda.testing.node.StartedMockNode
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+/**
+ * Each strategy should see the goodies it prefers even when many pages of
+ * older, smaller goodies are recorded before them.
+ */
+class GoodyStrategyTransferTest {
+    private companion object {
+        private const val SMALL_GOODIES = 600
+        private val NOUGAT = Candy("Nougat")
+        private val GOODY_REFERENCE = OpaqueBytes(byteArrayOf(0x65, 0x33, 0x49))
+    }
+
+    private lateinit var mockNet: MockNetwork
+    private lateinit var bankOfGoodiesNode: StartedMockNode
+    private lateinit var alice: Party
+    private val issued = ArrayList<StateAndRef<Goody.State>>()
+
+    @Before
+    fun start() {
+        mockNet = MockNetwork(
+            cordappPackages = listOf("com.example.goody.contracts", "com.example.goody.schemas")
+        )
+        bankOfGoodiesNode = mockNet.createPartyNode(BOG_NAME)
+        alice = mockNet.createPartyNode(ALICE_NAME).info.singleIdentity()
+        issue(List(SMALL_GOODIES) { 1L })
+        issue(listOf(100L, 45L, 25L, 15L))
+    }
+
+    @After
+    fun cleanUp() {
+        mockNet.stopNodes()
+    }
+
+    private fun issue(quantities: List<Long>) {
+        val issuances = quantities.map { GoodyIssuance(Amount(it, NOUGAT), GOODY_REFERENCE) }
+        val future = bankOfGoodiesNode.startFlow(GoodyBulkIssueFlow(issuances, mockNet.defaultNotaryIdentity))
+        mockNet.runNetwork()
+        issued += future.getOrThrow().tx.outRefsOfType<Goody.State>()
+    }
+
+    private fun spent(strategy: GoodySelectionStrategy): List<Long> {
+        val future = bankOfGoodiesNode.startFlow(GoodyTransferFlow(Amount(40, NOUGAT), alice, strategy))
+        mockNet.runNetwork()
+        val inputs = future.getOrThrow().inputs
+        return issued.filter { it.ref in inputs }.map { it.state.data.amount.quantity }.sortedDescending()
+    }
+
+    @Test
+    fun `oldest first spends the oldest goodies`() {
+        assertEquals(List(40) { 1L }, spent(OLDEST_FIRST))
+    }
+
+    @Test
+    fun `largest first spends the largest goody`() {
+        assertEquals(listOf(100L), spent(LARGEST_FIRST))
+    }
+
+    @Test
+    fun `best fit spends the smallest goody that covers the amount`() {
+        assertEquals(listOf(45L), spent(BEST_FIT))
+    }
+
+    @Test
+    fun `exact match spends goodies that need no change`() {
+        assertEquals(listOf(25L, 15L), spent(EXACT_MATCH_PREFERRED))
+    }
+}
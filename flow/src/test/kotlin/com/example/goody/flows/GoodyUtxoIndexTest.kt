@@ -0,0 +1,125 @@
+package com.example.goody.flows
+
+import com.example.goody.BOG_NAME
+import com.example.goody.GoodyIssuance
+import com.example.goody.GoodySelectionStrategy
+import com.example.goody.contracts.Candy
+import com.example.goody.contracts.Goody
+import com.example.goody.services.GoodyUtxoIndex
+import net.corda.core.contracts.Amount
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.identity.Party
+import net.corda.core.utilities.NonEmptySet
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.core.utilities.getOrThrow
+import net.corda.testing.core.ALICE_NAME
+import net.corda.testing.core.singleIdentity
+import net.corda.testing.node.MockNetwork
+import net.corda.testing.node.StartedMockNode
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.util.*
+
+class GoodyUtxoIndexTest {
+    private companion object {
+        private val NOUGAT = Candy("Nougat")
+        private val GOODY_REFERENCE = OpaqueBytes(byteArrayOf(0x65, 0x33, 0x49))
+    }
+
+    private lateinit var mockNet: MockNetwork
+    private lateinit var bankOfGoodiesNode: StartedMockNode
+    private lateinit var alice: Party
+    private lateinit var issued: List<StateAndRef<Goody.State>>
+
+    @Before
+    fun start() {
+        mockNet = MockNetwork(
+            cordappPackages = listOf("com.example.goody.contracts", "com.example.goody.schemas", "com.example.goody.services")
+        )
+        bankOfGoodiesNode = mockNet.createPartyNode(BOG_NAME)
+        alice = mockNet.createPartyNode(ALICE_NAME).info.singleIdentity()
+        val issuances = listOf(10L, 50L, 100L).map { GoodyIssuance(Amount(it, NOUGAT), GOODY_REFERENCE) }
+        val future = bankOfGoodiesNode.startFlow(GoodyBulkIssueFlow(issuances, mockNet.defaultNotaryIdentity))
+        mockNet.runNetwork()
+        issued = future.getOrThrow().tx.outRefsOfType()
+    }
+
+    @After
+    fun cleanUp() {
+        mockNet.stopNodes()
+    }
+
+    private fun transfer(quantity: Long, strategy: GoodySelectionStrategy = GoodySelectionStrategy.OLDEST_FIRST) = bankOfGoodiesNode.startFlow(GoodyTransferFlow(Amount(quantity, NOUGAT), alice, strategy)).let { future ->
+        mockNet.runNetwork()
+        future.getOrThrow()
+    }
+
+    @Test
+    fun `spend the smallest goody that covers the amount`() {
+        val transfer = transfer(40)
+        assertEquals(listOf(issued.single { it.state.data.amount.quantity == 50L }.ref), transfer.inputs)
+    }
+
+    @Test
+    fun `spend the largest goodies when none covers the amount`() {
+        val transfer = transfer(140)
+        val spent = issued.filter { it.ref in transfer.inputs }.map { it.state.data.amount.quantity }
+        assertEquals(setOf(50L, 100L), spent.toSet())
+    }
+
+    @Test
+    fun `spend other goodies when another flow has locked the first choice`() {
+        val fifty = issued.single { it.state.data.amount.quantity == 50L }.ref
+        bankOfGoodiesNode.transaction {
+            bankOfGoodiesNode.services.vaultService.softLockReserve(UUID.randomUUID(), NonEmptySet.of(fifty))
+        }
+
+        val transfer = transfer(40)
+        assertEquals(listOf(issued.single { it.state.data.amount.quantity == 100L }.ref), transfer.inputs)
+    }
+
+    @Test
+    fun `exact match sees goodies smaller than the largest`() {
+        val issuances = listOf(25L, 15L).map { GoodyIssuance(Amount(it, NOUGAT), GOODY_REFERENCE) }
+        val future = bankOfGoodiesNode.startFlow(GoodyBulkIssueFlow(issuances, mockNet.defaultNotaryIdentity))
+        mockNet.runNetwork()
+        val smaller = future.getOrThrow().tx.outRefsOfType<Goody.State>()
+
+        // The 50 covers 40 by itself, and the 100 is the largest, but only 25 and 15 need no change.
+        val transfer = transfer(40, GoodySelectionStrategy.EXACT_MATCH_PREFERRED)
+        assertEquals(smaller.map { it.ref }.toSet(), transfer.inputs.toSet())
+    }
+
+    @Test
+    fun `index follows the vault`() {
+        transfer(40)
+        val index = bankOfGoodiesNode.services.cordaService(GoodyUtxoIndex::class.java)
+        // The 50 was spent, leaving 10 as change.
+        assertEquals(3, index.size)
+
+        // The 100 and one of the 10s were spent exactly.
+        transfer(110)
+        assertEquals(1, index.size)
+    }
+
+    @Test
+    fun `index loads goodies recorded across more than one page`() {
+        // These all share a recorded time, which ends the index's first page.
+        val issuances = List(1000) { GoodyIssuance(Amount(1, NOUGAT), GOODY_REFERENCE) }
+        val future = bankOfGoodiesNode.startFlow(GoodyBulkIssueFlow(issuances, mockNet.defaultNotaryIdentity))
+        mockNet.runNetwork()
+        future.getOrThrow()
+
+        transfer(40)
+        val index = bankOfGoodiesNode.services.cordaService(GoodyUtxoIndex::class.java)
+        // The 50 was spent, leaving 10 as change.
+        assertEquals(1003, index.size)
+    }
+
+    @Test(expected = InsufficientGoodiesException::class)
+    fun `we cannot spend more goodies than the index holds`() {
+        transfer(161)
+    }
+}
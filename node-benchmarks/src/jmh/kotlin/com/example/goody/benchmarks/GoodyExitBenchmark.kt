@@ -0,0 +1,66 @@
+package com.example.goody.benchmarks
+
+import com.example.goody.GoodyIssuance
+import com.example.goody.contracts.Candy
+import com.example.goody.flows.GoodyBulkIssueFlow
+import com.example.goody.flows.GoodyExitFlow
+import net.corda.core.contracts.Amount
+import net.corda.core.identity.CordaX500Name
+import net.corda.core.transactions.SignedTransaction
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.core.utilities.getOrThrow
+import net.corda.testing.node.MockNetwork
+import net.corda.testing.node.StartedMockNode
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures the latency of [GoodyExitFlow] on a mock network, burning
+ * [inputs] goodies each time. The goodies are issued before each invocation,
+ * outside of the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class GoodyExitBenchmark {
+    private companion object {
+        private val BOG_NAME = CordaX500Name("BankOfGoodies", "London", "GB")
+        private val NOUGAT = Candy("Nougat")
+        private val GOODY_REFERENCE = OpaqueBytes(byteArrayOf(0x65, 0x33, 0x00, 0x24, 0x7C, 0x69))
+    }
+
+    @Param("1", "10", "100")
+    @JvmField
+    var inputs: Int = 0
+
+    private lateinit var mockNet: MockNetwork
+    private lateinit var bankOfGoodiesNode: StartedMockNode
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        mockNet = MockNetwork(
+            cordappPackages = listOf("com.example.goody.contracts", "com.example.goody.schemas")
+        )
+        bankOfGoodiesNode = mockNet.createPartyNode(BOG_NAME)
+    }
+
+    @TearDown(Level.Trial)
+    fun tearDown() {
+        mockNet.stopNodes()
+    }
+
+    @Setup(Level.Invocation)
+    fun issueGoodies() {
+        val issuances = List(inputs) { GoodyIssuance(Amount(1, NOUGAT), GOODY_REFERENCE) }
+        val future = bankOfGoodiesNode.startFlow(GoodyBulkIssueFlow(issuances, mockNet.defaultNotaryIdentity))
+        mockNet.runNetwork()
+        future.getOrThrow()
+    }
+
+    @Benchmark
+    fun exit(): SignedTransaction {
+        val future = bankOfGoodiesNode.startFlow(GoodyExitFlow(Amount(inputs.toLong(), NOUGAT), GOODY_REFERENCE))
+        mockNet.runNetwork()
+        return future.getOrThrow()
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.goody.benchmarks
+
+import com.example.goody.GoodySelection
+import com.example.goody.contracts.Candy
+import com.example.goody.contracts.Goody
+import com.example.goody.contracts.issuedBy
+import com.example.goody.services.GoodyBalanceService
+import net.corda.core.contracts.Amount
+import net.corda.core.contracts.PartyAndReference
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.identity.CordaX500Name
+import net.corda.core.identity.Party
+import net.corda.core.node.services.queryBy
+import net.corda.core.transactions.TransactionBuilder
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.testing.core.singleIdentity
+import net.corda.testing.node.MockNetwork
+import net.corda.testing.node.StartedMockNode
+import org.openjdk.jmh.annotations.*
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures the latency of coin selection and of the balance query on a mock
+ * node whose vault holds [rows] goodies, with either the indexes that
+ * `GoodySchemaV1` declared or those of `GoodySchemaV2`.
+ *
+ * The node creates `goody_states_v2` from the schema's Liquibase changelog,
+ * and the benchmarks run the same [GoodySelection] and
+ * [GoodyBalanceService.candySumCriteria] queries that the flows do. For `V1`,
+ * the changelog's indexes are replaced by one on the candy type alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class GoodyQueryBenchmark {
+    private companion object {
+        private val BOG_NAME = CordaX500Name("BankOfGoodies", "London", "GB")
+        private const val TYPES = 50
+        private const val REFERENCES = 32
+        private const val OUTPUTS_PER_TRANSACTION = 1000
+        private const val SELECTION_QUANTITY = 1000L
+
+        private val SCHEMA_INDEXES = mapOf(
+            "V1" to listOf(
+                "DROP INDEX goody_v2_selection_idx",
+                "DROP INDEX goody_v2_owner_idx",
+                "CREATE INDEX goody_v2_type_idx ON goody_states_v2(type)"
+            ),
+            "V2" to emptyList()
+        )
+
+        private val CANDIES = List(TYPES) { Candy("CANDY$it") }
+
+        private fun candyOf(index: Int) = CANDIES[index % TYPES]
+        private fun referenceOf(index: Int) = OpaqueBytes.of(((index / TYPES) % REFERENCES).toByte())
+    }
+
+    @Param("V1", "V2")
+    @JvmField
+    var schema: String = ""
+
+    @Param("1000000")
+    @JvmField
+    var rows: Int = 0
+
+    private lateinit var mockNet: MockNetwork
+    private lateinit var node: StartedMockNode
+    private lateinit var bankOfGoodies: Party
+    private var query = 0
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        mockNet = MockNetwork(
+            cordappPackages = listOf("com.example.goody.contracts", "com.example.goody.schemas")
+        )
+        node = mockNet.createPartyNode(BOG_NAME)
+        bankOfGoodies = node.info.singleIdentity()
+        node.transaction {
+            node.services.jdbcSession().createStatement().use { statement ->
+                statement.executeQuery("SELECT COUNT(*) FROM databasechangelog WHERE id = 'create_goody_states_v2'").use { results ->
+                    results.next()
+                    check(results.getInt(1) == 1) { "goody_states_v2 was not created by its Liquibase changelog" }
+                }
+                SCHEMA_INDEXES.getValue(schema).forEach { statement.execute(it) }
+            }
+        }
+        populate()
+    }
+
+    /**
+     * Records [rows] goodies, spread across the candy types and issuer
+     * references, in transactions of [OUTPUTS_PER_TRANSACTION] goodies. One
+     * in ten of them is then consumed.
+     */
+    private fun populate() {
+        val notary = mockNet.defaultNotaryIdentity
+        for (first in 0 until rows step OUTPUTS_PER_TRANSACTION) {
+            node.transaction {
+                val issue = TransactionBuilder(notary)
+                for (index in first until minOf(first + OUTPUTS_PER_TRANSACTION, rows)) {
+                    val amount = Amount(1L + index % 100, candyOf(index)) issuedBy bankOfGoodies.ref(referenceOf(index))
+                    issue.addOutputState(Goody.State(bankOfGoodies, amount), Goody.PROGRAM_ID)
+                }
+                issue.addCommand(Goody.Commands.Issue(), bankOfGoodies.owningKey)
+                val issued = node.services.signInitialTransaction(issue)
+
+                val consume = TransactionBuilder(notary)
+                issued.tx.outRefsOfType<Goody.State>().filterIndexed { index, _ -> index % 10 == 9 }.forEach { consume.addInputState(it) }
+                consume.addCommand(Goody.Commands.Move(), bankOfGoodies.owningKey)
+                node.services.recordTransactions(issued)
+                node.services.recordTransactions(node.services.signInitialTransaction(consume))
+            }
+        }
+        node.transaction {
+            node.services.jdbcSession().createStatement().use { it.execute("ANALYZE") }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    fun tearDown() {
+        mockNet.stopNodes()
+    }
+
+    @Benchmark
+    fun selectGoodies(): List<StateAndRef<Goody.State>> {
+        val index = query++
+        val issuer = PartyAndReference(bankOfGoodies, referenceOf(index))
+        val lockId = UUID.randomUUID()
+        return node.transaction {
+            GoodySelection.getInstance().unconsumedGoodyStates(
+                node.services,
+                Amount(SELECTION_QUANTITY, candyOf(index)),
+                lockId,
+                mockNet.defaultNotaryIdentity,
+                setOf(issuer.party),
+                setOf(issuer.reference)
+            ).also {
+                node.services.vaultService.softLockRelease(lockId)
+            }
+        }
+    }
+
+    @Benchmark
+    fun sumBalances(): List<Any> {
+        return node.transaction {
+            node.services.vaultService.queryBy<Goody.State>(GoodyBalanceService.candySumCriteria()).otherResults
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.goody.benchmarks
+
+import com.example.goody.contracts.Candy
+import com.example.goody.contracts.Goody
+import com.example.goody.contracts.issuedBy
+import com.example.goody.serializers.CandySerializer
+import com.example.goody.serializers.GoodyStateSerializer
+import net.corda.core.contracts.Amount
+import net.corda.core.crypto.Crypto
+import net.corda.core.identity.CordaX500Name
+import net.corda.core.identity.Party
+import net.corda.core.serialization.SerializationContext
+import net.corda.core.serialization.SerializedBytes
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.serialization.internal.AllWhitelist
+import net.corda.serialization.internal.SerializationContextImpl
+import net.corda.serialization.internal.amqp.*
+import org.openjdk.jmh.annotations.*
+import java.math.BigInteger
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compares the default AMQP encoding of [Goody.State]s with the compact one
+ * of [GoodyStateSerializer] and [CandySerializer], by serialising and
+ * deserialising lists of [states] goodies. The size of each encoding, in
+ * bytes per state, is reported alongside the results of the serialisation
+ * benchmarks as the [EncodedSize] counters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+open class GoodySerializationBenchmark {
+    private companion object {
+        private val CANDIES = listOf("NOUGAT", "TOFFEE", "FUDGE", "LIQUORICE", "MARZIPAN", "TRUFFLE", "PRALINE", "CARAMEL")
+    }
+
+    /**
+     * The bytes per state of each encoding. These are set afresh for every
+     * iteration, so that JMH reports them unchanged.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    open class EncodedSize {
+        @JvmField
+        var defaultBytesPerState: Long = 0
+
+        @JvmField
+        var compactBytesPerState: Long = 0
+
+        @Setup(Level.Iteration)
+        fun setUp(benchmark: GoodySerializationBenchmark) {
+            defaultBytesPerState = benchmark.defaultBytes.size.toLong() / benchmark.states
+            compactBytesPerState = benchmark.compactBytes.size.toLong() / benchmark.states
+        }
+    }
+
+    @Param("1", "100", "1000")
+    @JvmField
+    var states: Int = 0
+
+    private val context = SerializationContextImpl(amqpMagic, javaClass.classLoader, AllWhitelist, emptyMap(), true, SerializationContext.UseCase.P2P, null)
+    private val defaultFactory = factory()
+    private val compactFactory = factory().apply {
+        registerExternal(CorDappCustomSerializer(GoodyStateSerializer(), this))
+        registerExternal(CorDappCustomSerializer(CandySerializer(), this))
+    }
+
+    private lateinit var goodies: ArrayList<Goody.State>
+    internal lateinit var defaultBytes: SerializedBytes<ArrayList<Goody.State>>
+    internal lateinit var compactBytes: SerializedBytes<ArrayList<Goody.State>>
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        val owners = (0 until 16).map { party("Owner$it", 1 + it) }
+        val tokens = CANDIES.mapIndexed { i, candy -> Candy(candy).issuedBy(party("Issuer$i", 100 + i).ref(OpaqueBytes.of(i.toByte()))) }
+        goodies = ArrayList((0 until states).map { i -> Goody.State(owners[i % owners.size], Amount(100L + i, tokens[i % tokens.size])) })
+        defaultBytes = SerializationOutput(defaultFactory).serialize(goodies, context)
+        compactBytes = SerializationOutput(compactFactory).serialize(goodies, context)
+    }
+
+    @Suppress("UNUSED_PARAMETER")
+    @Benchmark
+    fun serializeDefault(size: EncodedSize) = SerializationOutput(defaultFactory).serialize(goodies, context)
+
+    @Suppress("UNUSED_PARAMETER")
+    @Benchmark
+    fun serializeCompact(size: EncodedSize) = SerializationOutput(compactFactory).serialize(goodies, context)
+
+    @Benchmark
+    fun deserializeDefault() = DeserializationInput(defaultFactory).deserialize(defaultBytes, ArrayList::class.java, context)
+
+    @Benchmark
+    fun deserializeCompact() = DeserializationInput(compactFactory).deserialize(compactBytes, ArrayList::class.java, context)
+
+    private fun factory(): SerializerFactory {
+        return SerializerFactoryBuilder.build(AllWhitelist, javaClass.classLoader).apply(::registerCustomSerializers)
+    }
+
+    private fun party(organisation: String, id: Int): Party {
+        val key = Crypto.deriveKeyPairFromEntropy(Crypto.EDDSA_ED25519_SHA512, BigInteger.valueOf(id.toLong())).public
+        return Party(CordaX500Name(organisation, "London", "GB"), key)
+    }
+}
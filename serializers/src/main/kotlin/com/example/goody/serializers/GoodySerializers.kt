@@ -0,0 +1,80 @@
+package com.example.goody.serializers
+
+import com.example.goody.contracts.Candy
+import com.example.goody.contracts.Goody
+import com.example.goody.contracts.issuedBy
+import net.corda.core.contracts.Amount
+import net.corda.core.contracts.PartyAndReference
+import net.corda.core.identity.AbstractParty
+import net.corda.core.serialization.SerializationCustomSerializer
+import net.corda.core.utilities.OpaqueBytes
+import java.util.concurrent.ConcurrentHashMap
+
+/*
+ * These serializers change how Goody states are encoded on the wire and in
+ * the node's database, and Corda registers them whenever this CorDapp is
+ * installed. They are therefore kept out of the contract CorDapp, so that a
+ * network only uses them when it installs this one on every node and on the
+ * webserver's RPC client.
+ */
+
+/**
+ * Serialises a [Goody.State] as a flat list of its owner, quantity, candy type,
+ * issuer and issuer reference. The default encoding instead nests an [Amount],
+ * with its display token size, an [net.corda.core.contracts.Issued], a
+ * [PartyAndReference] and a [Candy], and describes each of these in its schema.
+ * The display token size is derived from the [Candy], so it is not serialised,
+ * and each [Candy] is shared through [CandyPool].
+ */
+class GoodyStateSerializer : SerializationCustomSerializer<Goody.State, GoodyStateSerializer.Proxy> {
+    class Proxy(val owner: AbstractParty, val quantity: Long, val type: String, val issuer: AbstractParty, val issuerRef: ByteArray)
+
+    override fun toProxy(obj: Goody.State): Proxy {
+        val token = obj.amount.token
+        return Proxy(obj.owner, obj.amount.quantity, token.product.type, token.issuer.party, token.issuer.reference.bytes)
+    }
+
+    override fun fromProxy(proxy: Proxy): Goody.State {
+        val issuer = PartyAndReference(proxy.issuer, OpaqueBytes(proxy.issuerRef))
+        return Goody.State(proxy.owner, Amount(proxy.quantity, CandyPool.candy(proxy.type)) issuedBy issuer)
+    }
+}
+
+/**
+ * Serialises a [Candy] as its type, and shares each [Candy] it deserialises
+ * through [CandyPool].
+ */
+class CandySerializer : SerializationCustomSerializer<Candy, CandySerializer.Proxy> {
+    class Proxy(val type: String)
+
+    override fun toProxy(obj: Candy) = Proxy(obj.type)
+
+    override fun fromProxy(proxy: Proxy): Candy = CandyPool.candy(proxy.type)
+}
+
+/**
+ * The [Candy] of each type that the serializers have deserialised, so that
+ * the goodies read from a transaction or a vault query share one [Candy] per
+ * type instead of allocating their own. The contract module must stay
+ * deterministic, so the pool lives here rather than in [Candy] itself.
+ */
+internal object CandyPool {
+    /**
+     * There are only ever a handful of candy types, so this bound is only
+     * reached if something is creating types without limit.
+     */
+    private const val MAX_CANDIES = 1024
+    private val candies = ConcurrentHashMap<String, Candy>()
+
+    fun candy(type: String): Candy {
+        val existing = candies[type]
+        if (existing != null) {
+            return existing
+        }
+        val candy = Candy(type)
+        if (candies.size >= MAX_CANDIES) {
+            return candy
+        }
+        return candies.putIfAbsent(type, candy) ?: candy
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.goody.serializers
+
+import com.example.goody.contracts.Candy
+import com.example.goody.contracts.Goody
+import com.example.goody.contracts.issuedBy
+import com.example.goody.flows.GoodyIssueFlow
+import com.example.goody.flows.GoodyTransferFlow
+import net.corda.core.contracts.Amount
+import net.corda.core.contracts.ComponentGroupEnum
+import net.corda.core.identity.CordaX500Name
+import net.corda.core.messaging.vaultQueryBy
+import net.corda.core.serialization.SerializationContext
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.core.utilities.getOrThrow
+import net.corda.node.services.Permissions
+import net.corda.serialization.internal.AllWhitelist
+import net.corda.serialization.internal.SerializationContextImpl
+import net.corda.serialization.internal.amqp.SerializationOutput
+import net.corda.serialization.internal.amqp.SerializerFactoryBuilder
+import net.corda.serialization.internal.amqp.amqpMagic
+import net.corda.testing.core.ALICE_NAME
+import net.corda.testing.core.singleIdentity
+import net.corda.testing.driver.DriverParameters
+import net.corda.testing.driver.driver
+import net.corda.testing.node.User
+import org.junit.AfterClass
+import org.junit.Assert.*
+import org.junit.BeforeClass
+import org.junit.Test
+
+/**
+ * Sends a goody between two nodes that have installed the serializers, and
+ * then fetches it over RPC with a client that has registered them too. The
+ * goody that the node wrote into the transaction must be smaller than its
+ * default encoding, which shows that the compact one was used.
+ */
+class GoodyCompactEncodingTest {
+    companion object {
+        /** The packages that an RPC client scans for custom serializers. */
+        private const val SCAN_SPEC_PROPERTY = "amqp.custom.serialization.scanSpec"
+        private val BOG_NAME = CordaX500Name("BankOfGoodies", "London", "GB")
+        private val NOUGAT = Candy("Nougat")
+        private val GOODY_REFERENCE = OpaqueBytes.of(0x65, 0x33)
+        private val user = User("goody", "goody", setOf(Permissions.all()))
+
+        // The driver's RPC clients scan for custom serializers when they are first used.
+        @BeforeClass
+        @JvmStatic
+        fun registerSerializers() {
+            System.setProperty(SCAN_SPEC_PROPERTY, GoodyStateSerializer::class.java.`package`.name)
+        }
+
+        @AfterClass
+        @JvmStatic
+        fun unregisterSerializers() {
+            System.clearProperty(SCAN_SPEC_PROPERTY)
+        }
+    }
+
+    /**
+     * Serializes [obj] without any custom serializers, as a node would if the
+     * serializers were not installed.
+     */
+    private fun defaultSize(obj: Any): Int {
+        val factory = SerializerFactoryBuilder.build(AllWhitelist, javaClass.classLoader)
+        val context = SerializationContextImpl(amqpMagic, javaClass.classLoader, AllWhitelist, emptyMap(), true, SerializationContext.UseCase.P2P, null)
+        return SerializationOutput(factory).serialize(obj, context).size
+    }
+
+    @Test
+    fun `goodies reach other nodes and RPC clients in the compact encoding`() {
+        driver(DriverParameters(extraCordappPackagesToScan = listOf("com.example.goody"), startNodesInProcess = false)) {
+            val bankOfGoodiesNode = startNode(providedName = BOG_NAME, rpcUsers = listOf(user)).getOrThrow()
+            val aliceNode = startNode(providedName = ALICE_NAME, rpcUsers = listOf(user)).getOrThrow()
+            val bankOfGoodies = bankOfGoodiesNode.nodeInfo.singleIdentity()
+            val alice = aliceNode.nodeInfo.singleIdentity()
+
+            val amount = Amount(7684, NOUGAT)
+            bankOfGoodiesNode.rpc.startFlowDynamic(GoodyIssueFlow::class.java, amount, GOODY_REFERENCE, defaultNotaryIdentity).returnValue.getOrThrow()
+            val transfer = bankOfGoodiesNode.rpc.startFlowDynamic(GoodyTransferFlow::class.java, amount, alice).returnValue.getOrThrow()
+
+            val goody = aliceNode.rpc.vaultQueryBy<Goody.State>().states.single().state.data
+            assertEquals(alice, goody.owner)
+            assertEquals(amount issuedBy bankOfGoodies.ref(GOODY_REFERENCE), goody.amount)
+
+            // The components of a transaction hold the bytes that the node serialized.
+            val outputs = transfer.tx.componentGroups.single { it.groupIndex == ComponentGroupEnum.OUTPUTS_GROUP.ordinal }.components
+            val index = transfer.tx.outputs.indexOfFirst { (it.data as Goody.State).owner == alice }
+            val compactSize = outputs[index].size
+            val defaultSize = defaultSize(transfer.tx.outputs[index])
+            assertTrue("Compact encoding of $compactSize bytes is not smaller than default of $defaultSize bytes", compactSize < defaultSize)
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.goody.serializers
+
+import com.example.goody.contracts.Candy
+import com.example.goody.contracts.Goody
+import com.example.goody.contracts.issuedBy
+import net.corda.core.contracts.Amount
+import net.corda.core.identity.CordaX500Name
+import net.corda.core.serialization.SerializationContext
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.serialization.internal.AllWhitelist
+import net.corda.serialization.internal.SerializationContextImpl
+import net.corda.serialization.internal.amqp.*
+import net.corda.testing.core.ALICE_NAME
+import net.corda.testing.core.TestIdentity
+import org.junit.Assert.*
+import org.junit.Test
+
+class GoodySerializersTest {
+    private companion object {
+        private val NOUGAT = Candy("Nougat")
+        private val GOODY_REFERENCE = OpaqueBytes.of(0x65, 0x33)
+        private val bankOfGoodies = TestIdentity(CordaX500Name("BankOfGoodies", "London", "GB"))
+        private val alice = TestIdentity(ALICE_NAME)
+    }
+
+    private val context = SerializationContextImpl(amqpMagic, javaClass.classLoader, AllWhitelist, emptyMap(), true, SerializationContext.UseCase.P2P, null)
+
+    private fun factory(compact: Boolean): SerializerFactory {
+        return SerializerFactoryBuilder.build(AllWhitelist, javaClass.classLoader).apply {
+            registerCustomSerializers(this)
+            if (compact) {
+                registerExternal(CorDappCustomSerializer(GoodyStateSerializer(), this))
+                registerExternal(CorDappCustomSerializer(CandySerializer(), this))
+            }
+        }
+    }
+
+    private fun goodies(count: Int): ArrayList<Goody.State> {
+        return ArrayList((0 until count).map { Goody.State(alice.party, Amount(100L + it, NOUGAT) issuedBy bankOfGoodies.party.ref(GOODY_REFERENCE)) })
+    }
+
+    @Test
+    fun testRoundTrip() {
+        val factory = factory(compact = true)
+        val goodies = goodies(3)
+        val bytes = SerializationOutput(factory).serialize(goodies, context)
+        val copy = DeserializationInput(factory).deserialize(bytes, ArrayList::class.java, context)
+        assertEquals(goodies, copy)
+        assertEquals(goodies.map { it.amount.displayTokenSize }, copy.map { (it as Goody.State).amount.displayTokenSize })
+    }
+
+    @Test
+    fun testCandiesAreShared() {
+        val factory = factory(compact = true)
+        val bytes = SerializationOutput(factory).serialize(goodies(3), context)
+        val copy = DeserializationInput(factory).deserialize(bytes, ArrayList::class.java, context).map { (it as Goody.State).amount.token.product }
+        assertEquals(NOUGAT, copy.first())
+        assertTrue(copy.all { it === copy.first() })
+    }
+
+    @Test
+    fun testCompactEncodingIsSmaller() {
+        val goodies = goodies(100)
+        val defaultSize = SerializationOutput(factory(compact = false)).serialize(goodies, context).size
+        val compactSize = SerializationOutput(factory(compact = true)).serialize(goodies, context).size
+        assertTrue("Compact encoding of $compactSize bytes is not smaller than default of $defaultSize bytes", compactSize < defaultSize)
+    }
+}
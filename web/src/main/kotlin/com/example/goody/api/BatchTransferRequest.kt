@@ -0,0 +1,12 @@
+package com.example.goody.api
+
+import com.example.goody.GoodySelectionStrategy
+import com.fasterxml.jackson.annotation.JsonProperty
+
+class BatchTransferRequest(
+    @JsonProperty("transfers")
+    val transfers: List<TransferRequest>,
+
+    @JsonProperty("strategy")
+    val strategy: GoodySelectionStrategy? = null
+)
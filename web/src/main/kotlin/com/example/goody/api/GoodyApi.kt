@@ -1,33 +1,52 @@
 package com.example.goody.api
 
+import com.example.goody.GoodyDenominations
+import com.example.goody.GoodyPayment
+import com.example.goody.GoodySelectionStrategy
+import com.example.goody.NotaryRetryPolicy
 import com.example.goody.contracts.Candy
-import com.example.goody.contracts.Goody
+import com.example.goody.flows.GoodyBalancesFlow
+import com.example.goody.flows.GoodyBatchTransferFlow
 import com.example.goody.flows.GoodyExitFlow
 import com.example.goody.flows.GoodyIssueFlow
+import com.example.goody.flows.GoodyMetricsFlow
 import com.example.goody.flows.GoodyTransferFlow
-import com.example.goody.schemas.GoodySchemaV1
+import com.example.goody.schemas.GoodySchemaV2
 import net.corda.core.contracts.Amount
 import net.corda.core.identity.CordaX500Name
 import net.corda.core.identity.Party
 import net.corda.core.messaging.CordaRPCOps
 import net.corda.core.messaging.startFlow
-import net.corda.core.messaging.vaultQueryBy
 import net.corda.core.node.services.vault.QueryCriteria
 import net.corda.core.node.services.vault.builder
+import net.corda.core.transactions.SignedTransaction
 import net.corda.core.utilities.getOrThrow
 import net.corda.core.utilities.loggerFor
+import org.glassfish.jersey.server.ChunkedOutput
+import java.time.Instant
 import javax.ws.rs.*
 import javax.ws.rs.container.AsyncResponse
 import javax.ws.rs.container.CompletionCallback
 import javax.ws.rs.container.Suspended
 import javax.ws.rs.core.MediaType.*
 import javax.ws.rs.core.Response
-import kotlin.concurrent.thread
 
 @Path("goody")
 class GoodyApi(private val rpcOps: CordaRPCOps) {
     private companion object {
         private val log = loggerFor<GoodyApi>()
+        private const val FEED_WRITER_THREADS = 2
+        private const val MAX_IN_FLIGHT = 256
+        private const val MAX_HOLDINGS_PAGE_SIZE = 10000
+    }
+
+    private val limiter = GoodyRequestLimiter(Integer.getInteger("goody.api.maxInFlight", MAX_IN_FLIGHT))
+    private val notaryRetryPolicy = NotaryRetryPolicy.DEFAULT.copy(maxAttempts = Integer.getInteger("goody.api.notaryAttempts", 1))
+    private val feed = GoodyBalanceFeed(rpcOps, Integer.getInteger("goody.feed.writerThreads", FEED_WRITER_THREADS))
+
+    init {
+        // The web server has no shutdown callback for its APIs.
+        Runtime.getRuntime().addShutdownHook(Thread(feed::close, "goody-feed-shutdown"))
     }
 
     private val myLegalName: List<CordaX500Name> get() = rpcOps.nodeInfo().legalIdentities.map(Party::name)
@@ -52,18 +71,16 @@ class GoodyApi(private val rpcOps: CordaRPCOps) {
         })
         val issueRequest = request ?: throw BadRequestException("Request data missing")
         log.info("Received Issue request: candy='{}', reference={}", issueRequest.candy, issueRequest.issuerReference)
-
-        thread(isDaemon = true) {
-            val signedTx = try {
-                val notary = issueRequest.notary ?: rpcOps.notaryIdentities().first()
-                rpcOps.startFlow(::GoodyIssueFlow, issueRequest.candy, issueRequest.issuerReference, notary)
-                        .returnValue.getOrThrow()
-            } catch (ex: Exception) {
-                async.resume(BadRequestException(ex.message))
-                return@thread
-            }
-            async.resume(Response.ok("Transaction ID: ${signedTx.id}").build())
+        val buckets = issueRequest.buckets ?: 1
+        if (buckets !in 1..GoodyDenominations.MAX_BUCKETS) {
+            throw BadRequestException("Buckets must be between 1 and ${GoodyDenominations.MAX_BUCKETS}")
         }
+        val denominations = GoodyDenominations(issueRequest.denominations ?: GoodyDenominations.Ladder.SINGLE, buckets)
+
+        limiter.execute(async, {
+            val notary = issueRequest.notary ?: rpcOps.notaryIdentities().first()
+            rpcOps.startFlow(::GoodyIssueFlow, issueRequest.candy, issueRequest.issuerReference, notary, denominations).returnValue
+        }, ::transactionResponse)
     }
 
     /**
@@ -80,16 +97,34 @@ class GoodyApi(private val rpcOps: CordaRPCOps) {
         val transferRequest = request ?: throw BadRequestException("Request data missing")
         log.info("Received Transfer request: candy='{}', recipient='{}'", transferRequest.candy, transferRequest.recipient)
 
-        thread(isDaemon = true) {
-            val signedTx = try {
-                rpcOps.startFlow(::GoodyTransferFlow, transferRequest.candy, transferRequest.recipient)
-                        .returnValue.getOrThrow()
-            } catch (ex: Exception) {
-                async.resume(BadRequestException(ex.message))
-                return@thread
-            }
-            async.resume(Response.ok("Transaction ID: ${signedTx.id}").build())
+        limiter.execute(async, {
+            val strategy = transferRequest.strategy ?: GoodySelectionStrategy.OLDEST_FIRST
+            rpcOps.startFlow(::GoodyTransferFlow, transferRequest.candy, transferRequest.recipient, strategy, notaryRetryPolicy).returnValue
+        }, ::transactionResponse)
+    }
+
+    /**
+     * Submits a single "Transfer" request for Candy to many other parties.
+     */
+    @POST
+    @Path("transfer/batch")
+    @Consumes(APPLICATION_JSON)
+    fun batchTransfer(request: BatchTransferRequest?, @Suspended async: AsyncResponse) {
+        async.register(CompletionCallback { ex ->
+            if (ex == null) log.info("Batch transfer completed") else log.error("Batch transfer failed", ex)
+        })
+
+        val batchRequest = request ?: throw BadRequestException("Request data missing")
+        if (batchRequest.transfers.isEmpty()) {
+            throw BadRequestException("No transfers requested")
         }
+        log.info("Received Batch transfer request: {} transfer(s)", batchRequest.transfers.size)
+
+        val payments = batchRequest.transfers.map { GoodyPayment(it.recipient, it.candy) }
+        limiter.execute(async, {
+            val strategy = batchRequest.strategy ?: GoodySelectionStrategy.OLDEST_FIRST
+            rpcOps.startFlow(::GoodyBatchTransferFlow, payments, strategy, notaryRetryPolicy).returnValue
+        }, ::transactionResponse)
     }
 
     /**
@@ -106,14 +141,90 @@ class GoodyApi(private val rpcOps: CordaRPCOps) {
 
         log.info("Received Balance request: candy='{}'", candyType ?: "ALL")
 
-        thread(isDaemon = true) {
-            val balances = try {
-                rowsToBalances(rpcOps.vaultQueryBy<Goody.State>(generateCandySumCriteria(candyType)).otherResults)
-            } catch (ex: Exception) {
-                async.resume(BadRequestException(ex.message))
-                return@thread
+        limiter.execute(async, {
+            rpcOps.startFlow(::GoodyBalancesFlow, candyType).returnValue
+        }, ::balancesResponse)
+    }
+
+    /**
+     * Streams changes to how many of each type of Candy we own, as
+     * newline-delimited JSON. The first chunk is a snapshot of all balances
+     * and each subsequent chunk contains the net change per candy type.
+     */
+    @GET
+    @Path("balances/feed")
+    @Produces(APPLICATION_JSON)
+    fun balanceFeed(): ChunkedOutput<Map<String, Any>> {
+        log.info("Received Balance feed request")
+        return feed.subscribe()
+    }
+
+    /**
+     * Streams our individual goodies as JSON, optionally only those of one
+     * type of Candy, issuer or owner. The goodies are fetched from the node
+     * [pageSize] at a time. If [maxPages] is given then the response stops
+     * after this many pages, and contains a cursor from which a further
+     * request with the same filters can continue.
+     */
+    @GET
+    @Path("holdings")
+    @Produces(APPLICATION_JSON)
+    fun holdings(@QueryParam("candy") candyType: String?,
+                 @QueryParam("issuer") issuerName: String?,
+                 @QueryParam("owner") ownerName: String?,
+                 @QueryParam("cursor") cursorText: String?,
+                 @QueryParam("pageSize") @DefaultValue("1000") pageSize: Int,
+                 @QueryParam("maxPages") maxPages: Int?): Response {
+        log.info("Received Holdings request: candy='{}', issuer='{}', owner='{}', cursor='{}'", candyType ?: "ALL", issuerName, ownerName, cursorText)
+        if (pageSize < 1 || pageSize > MAX_HOLDINGS_PAGE_SIZE) {
+            throw BadRequestException("Page size must be between 1 and $MAX_HOLDINGS_PAGE_SIZE")
+        }
+        if (maxPages != null && maxPages < 1) {
+            throw BadRequestException("Maximum number of pages must be positive")
+        }
+        val cursor = try {
+            if (cursorText == null) HoldingsCursor(Instant.now()) else HoldingsCursor.parse(cursorText)
+        } catch (e: Exception) {
+            throw BadRequestException("Invalid cursor '$cursorText'")
+        }
+
+        var criteria: QueryCriteria = QueryCriteria.FungibleAssetQueryCriteria(
+            owner = ownerName?.let { listOf(partyFromName(it)) },
+            issuer = issuerName?.let { listOf(partyFromName(it)) }
+        )
+        if (candyType != null) {
+            criteria = criteria.and(QueryCriteria.VaultCustomQueryCriteria(builder {
+                GoodySchemaV2.PersistentGoodyState::type.equal(Candy(candyType).type)
+            }))
+        }
+        return Response.ok(GoodyHoldingsExport(rpcOps, criteria, cursor, pageSize, maxPages), APPLICATION_JSON_TYPE).build()
+    }
+
+    private fun partyFromName(name: String): Party {
+        val x500Name = try {
+            CordaX500Name.parse(name)
+        } catch (e: IllegalArgumentException) {
+            throw BadRequestException("Invalid party name '$name'")
+        }
+        return rpcOps.wellKnownPartyFromX500Name(x500Name) ?: throw BadRequestException("Unknown party '$name'")
+    }
+
+    /**
+     * Returns how long the Goody flows have spent on each step, how often
+     * they have failed, and how busy this API is. This bypasses the API's
+     * limit on flows in progress, so that it remains available under load.
+     */
+    @GET
+    @Path("metrics")
+    @Produces(APPLICATION_JSON)
+    fun metrics(@Suspended async: AsyncResponse) {
+        rpcOps.startFlow(::GoodyMetricsFlow).returnValue.then { future ->
+            try {
+                async.resume(Response.ok(mapOf("flows" to future.getOrThrow(), "api" to limiter.stats())).build())
+            } catch (e: Exception) {
+                log.error("Metrics request failed", e)
+                async.resume(e)
             }
-            async.resume(Response.ok(mapOf("balances" to balances)).build())
         }
     }
 
@@ -131,37 +242,12 @@ class GoodyApi(private val rpcOps: CordaRPCOps) {
         val exitRequest = request ?: throw BadRequestException("Request data missing")
         log.info("Received Exit request: candy='{}'", exitRequest.candy)
 
-        thread(isDaemon = true) {
-            val signedTx = try {
-                rpcOps.startFlow(::GoodyExitFlow, exitRequest.candy, exitRequest.issuerReference)
-                        .returnValue.getOrThrow()
-            } catch (ex: Exception) {
-                async.resume(BadRequestException(ex.message))
-                return@thread
-            }
-            async.resume(Response.ok("Transaction ID: ${signedTx.id}").build())
-        }
+        limiter.execute(async, {
+            rpcOps.startFlow(::GoodyExitFlow, exitRequest.candy, exitRequest.issuerReference, notaryRetryPolicy).returnValue
+        }, ::transactionResponse)
     }
 
-    private fun generateCandySumCriteria(candyType: String?): QueryCriteria {
-        val sum = builder { GoodySchemaV1.PersistentGoodyState::count.sum(groupByColumns = listOf(GoodySchemaV1.PersistentGoodyState::type)) }
-        return QueryCriteria.VaultCustomQueryCriteria(sum).let { sumCriteria ->
-            if (candyType != null) {
-                val candyIndex = builder { GoodySchemaV1.PersistentGoodyState::type.equal(candyType.toUpperCase()) }
-                // This query should only return states the calling node is a participant of (meaning they can be modified/spent).
-                sumCriteria.and(QueryCriteria.VaultCustomQueryCriteria(candyIndex))
-            } else {
-                sumCriteria
-            }
-        }
-    }
+    private fun balancesResponse(balances: Map<Candy, Amount<Candy>>): Response = Response.ok(mapOf("balances" to balances)).build()
 
-    private fun rowsToBalances(rows: List<Any>): Map<Candy, Amount<Candy>> {
-        val balances = mutableMapOf<Candy, Amount<Candy>>()
-        for (index in 0 until rows.size step 2) {
-            val candy = Candy(rows[index + 1] as String)
-            balances[candy] = Amount(rows[index] as Long, candy)
-        }
-        return balances
-    }
+    private fun transactionResponse(signedTx: SignedTransaction): Response = Response.ok("Transaction ID: ${signedTx.id}").build()
 }
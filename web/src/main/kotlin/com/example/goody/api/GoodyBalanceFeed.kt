@@ -0,0 +1,271 @@
+package com.example.goody.api
+
+import com.example.goody.contracts.Goody
+import com.example.goody.services.GoodyBalanceService
+import net.corda.core.messaging.CordaRPCOps
+import net.corda.core.messaging.vaultTrackBy
+import net.corda.core.node.services.Vault
+import net.corda.core.utilities.loggerFor
+import org.glassfish.jersey.server.ChunkedOutput
+import rx.Subscription
+import java.io.Closeable
+import java.io.IOException
+import java.util.concurrent.CopyOnWriteArraySet
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Pushes changes in this node's candy balances to any number of HTTP clients,
+ * all fed from a single RPC vault subscription.
+ *
+ * Every client first receives a snapshot of the current balances, followed by
+ * the net change per candy type as transactions are recorded. Changes are
+ * merged while a client is still busy receiving earlier ones, so a slow client
+ * receives fewer, larger deltas instead of an ever-growing backlog.
+ *
+ * If the vault subscription fails then the feed subscribes again, and sends
+ * every client a new snapshot. Idle clients are sent an empty delta every
+ * [HEARTBEAT_SECONDS], so that those which have gone away are noticed. The
+ * vault subscription is closed when the last client goes, and opened again
+ * for the next one.
+ */
+class GoodyBalanceFeed(private val rpcOps: CordaRPCOps, writerThreads: Int) : Closeable {
+    private companion object {
+        private val log = loggerFor<GoodyBalanceFeed>()
+        private const val CHUNK_DELIMITER = "\n"
+        private const val HEARTBEAT_SECONDS = 15L
+        private const val RESUBSCRIBE_DELAY_SECONDS = 5L
+    }
+
+    private val lock = Any()
+    private val totals = LinkedHashMap<String, Long>()
+    private val clients = CopyOnWriteArraySet<Client>()
+    private var subscription: Subscription? = null
+    private var closed = false
+
+    private val writers: ExecutorService = Executors.newFixedThreadPool(writerThreads, object : ThreadFactory {
+        private val counter = AtomicInteger()
+        override fun newThread(task: Runnable) = Thread(task, "goody-feed-${counter.incrementAndGet()}").apply { isDaemon = true }
+    })
+
+    private val scheduler: ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor { task ->
+        Thread(task, "goody-feed-scheduler").apply { isDaemon = true }
+    }
+
+    init {
+        scheduler.scheduleWithFixedDelay({ clients.forEach(Client::heartbeat) }, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS)
+    }
+
+    /**
+     * Registers a new client, subscribing to the node's vault first if
+     * nobody else has done so yet.
+     */
+    fun subscribe(): ChunkedOutput<Map<String, Any>> {
+        val output = ChunkedOutput<Map<String, Any>>(Map::class.java, CHUNK_DELIMITER)
+        synchronized(lock) {
+            check(!closed) { "Balance feed is closed" }
+            start()
+            val client = Client(output, LinkedHashMap(totals))
+            clients += client
+            client.schedule()
+        }
+        log.info("Balance feed client connected, {} client(s) in total", clients.size)
+        return output
+    }
+
+    private fun start() {
+        if (subscription != null) {
+            return
+        }
+        val (snapshot, updates) = rpcOps.vaultTrackBy<Goody.State>(GoodyBalanceService.candySumCriteria())
+        val rows = snapshot.otherResults
+        totals.clear()
+        for (index in 0 until rows.size step 2) {
+            totals[rows[index + 1] as String] = rows[index] as Long
+        }
+        subscription = updates.subscribe({ update -> publish(deltasOf(update)) }, ::onError)
+    }
+
+    private fun stop() {
+        subscription?.unsubscribe()
+        subscription = null
+    }
+
+    /**
+     * Disconnects every client, and closes the vault subscription.
+     */
+    override fun close() {
+        synchronized(lock) {
+            closed = true
+            stop()
+        }
+        clients.forEach(Client::disconnect)
+        scheduler.shutdownNow()
+        writers.shutdownNow()
+    }
+
+    private fun onError(ex: Throwable) {
+        log.error("Vault update feed has failed, subscribing again", ex)
+        synchronized(lock) {
+            subscription = null
+            if (closed) {
+                return
+            }
+        }
+        scheduleResubscribe()
+    }
+
+    /**
+     * Subscribes to the vault again, unless every client has gone, and sends
+     * the clients a new snapshot. The deltas that were missed in between are
+     * not known, so the clients' pending deltas are discarded.
+     */
+    private fun scheduleResubscribe() {
+        scheduler.schedule({
+            try {
+                synchronized(lock) {
+                    if (subscription == null && clients.isNotEmpty()) {
+                        start()
+                        clients.forEach { it.reset(LinkedHashMap(totals)) }
+                    }
+                }
+            } catch (e: Exception) {
+                log.warn("Unable to subscribe to the vault again, will retry", e)
+                scheduleResubscribe()
+            }
+        }, RESUBSCRIBE_DELAY_SECONDS, TimeUnit.SECONDS)
+    }
+
+    private fun deltasOf(update: Vault.Update<Goody.State>): Map<String, Long> {
+        val deltas = LinkedHashMap<String, Long>()
+        update.consumed.forEach { deltas.merge(it.state.data.amount.token.product.type, -it.state.data.amount.quantity) { a, b -> a + b } }
+        update.produced.forEach { deltas.merge(it.state.data.amount.token.product.type, it.state.data.amount.quantity) { a, b -> a + b } }
+        deltas.values.removeIf { it == 0L }
+        return deltas
+    }
+
+    private fun publish(deltas: Map<String, Long>) {
+        if (deltas.isEmpty()) {
+            return
+        }
+        synchronized(lock) {
+            deltas.forEach { type, delta ->
+                val total = (totals[type] ?: 0L) + delta
+                if (total == 0L) totals.remove(type) else totals[type] = total
+            }
+            clients.forEach { it.offer(deltas) }
+        }
+    }
+
+    private inner class Client(private val output: ChunkedOutput<Map<String, Any>>, snapshot: Map<String, Long>) {
+        private var snapshot: Map<String, Long>? = snapshot
+        private val pending = LinkedHashMap<String, Long>()
+        private var heartbeatDue = false
+        private var draining = false
+        private var connected = true
+
+        fun offer(deltas: Map<String, Long>) {
+            synchronized(this) {
+                deltas.forEach { type, delta -> pending.merge(type, delta) { a, b -> a + b } }
+            }
+            schedule()
+        }
+
+        fun reset(snapshot: Map<String, Long>) {
+            synchronized(this) {
+                this.snapshot = snapshot
+                pending.clear()
+            }
+            schedule()
+        }
+
+        fun heartbeat() {
+            synchronized(this) {
+                heartbeatDue = true
+            }
+            schedule()
+        }
+
+        fun schedule() {
+            synchronized(this) {
+                if (draining || !connected) {
+                    return
+                }
+                draining = true
+            }
+            writers.execute { drain() }
+        }
+
+        /**
+         * Writes everything pending for this client, one chunk at a time.
+         * Only one drain per client runs at once, and any deltas that arrive
+         * meanwhile are merged and picked up by the next iteration.
+         */
+        private fun drain() {
+            try {
+                while (true) {
+                    output.write(nextChunk() ?: return)
+                }
+            } catch (e: IOException) {
+                disconnect()
+            } catch (e: RuntimeException) {
+                log.error("Unable to write to balance feed client", e)
+                disconnect()
+            } finally {
+                // Deltas may have arrived after the last chunk was taken, while
+                // draining was still set, so look for them once more.
+                val more = synchronized(this) {
+                    draining = false
+                    connected && (snapshot != null || pending.isNotEmpty() || heartbeatDue)
+                }
+                if (more) {
+                    schedule()
+                }
+            }
+        }
+
+        private fun nextChunk(): Map<String, Any>? {
+            synchronized(this) {
+                val current = snapshot
+                if (current != null) {
+                    snapshot = null
+                    heartbeatDue = false
+                    return mapOf("snapshot" to true, "balances" to current)
+                }
+                pending.values.removeIf { it == 0L }
+                if (pending.isEmpty() && !heartbeatDue) {
+                    return null
+                }
+                val deltas = LinkedHashMap(pending)
+                pending.clear()
+                heartbeatDue = false
+                return mapOf("snapshot" to false, "balances" to deltas)
+            }
+        }
+
+        fun disconnect() {
+            synchronized(this) {
+                if (!connected) {
+                    return
+                }
+                connected = false
+            }
+            synchronized(lock) {
+                clients -= this
+                if (clients.isEmpty()) {
+                    stop()
+                }
+            }
+            try {
+                output.close()
+            } catch (e: IOException) {
+                log.debug("Error closing balance feed", e)
+            }
+            log.info("Balance feed client disconnected, {} client(s) remaining", clients.size)
+        }
+    }
+}
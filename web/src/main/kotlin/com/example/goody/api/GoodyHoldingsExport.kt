@@ -0,0 +1,178 @@
+package com.example.goody.api
+
+import com.example.goody.contracts.Goody
+import com.fasterxml.jackson.core.JsonFactory
+import com.fasterxml.jackson.core.JsonGenerator
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.contracts.StateRef
+import net.corda.core.crypto.SecureHash
+import net.corda.core.messaging.CordaRPCOps
+import net.corda.core.messaging.vaultQueryBy
+import net.corda.core.node.services.Vault
+import net.corda.core.node.services.vault.*
+import net.corda.core.utilities.loggerFor
+import net.corda.core.utilities.toHexString
+import java.io.OutputStream
+import java.time.Instant
+import javax.ws.rs.core.StreamingOutput
+
+/**
+ * Streams our unconsumed goodies that match [criteria] as a single JSON
+ * object, fetching them from the node one page at a time so that neither
+ * the webserver nor the node need hold all of them at once:
+ *
+ * ```
+ * { "states": [ ... ], "next": "<cursor>" }
+ * ```
+ *
+ * Only goodies recorded by the cursor's [HoldingsCursor.asOf] time are
+ * included, so that goodies recorded during an export do not move others
+ * onto later pages. Each page continues strictly after the last goody
+ * exported, by its recorded time and state reference, so that consuming
+ * goodies during an export does not skip any others. If [maxPages] is given
+ * then the export stops after this many pages, and `next` is the cursor from
+ * which to continue with the same filters. Otherwise `next` is `null`.
+ */
+class GoodyHoldingsExport(
+    private val rpcOps: CordaRPCOps,
+    criteria: QueryCriteria,
+    private val cursor: HoldingsCursor,
+    private val pageSize: Int,
+    private val maxPages: Int?
+) : StreamingOutput {
+    private companion object {
+        private val log = loggerFor<GoodyHoldingsExport>()
+        private val jsonFactory = JsonFactory()
+
+        // The state reference breaks ties between goodies recorded at the same time,
+        // so that each page continues exactly where the previous one stopped.
+        private val sorting = Sort(setOf(
+            Sort.SortColumn(SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME), Sort.Direction.ASC),
+            Sort.SortColumn(SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_TXN_ID), Sort.Direction.ASC),
+            Sort.SortColumn(SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF_INDEX), Sort.Direction.ASC)
+        ))
+    }
+
+    private class Holding(val stateAndRef: StateAndRef<Goody.State>, val recordedTime: Instant)
+
+    private val criteria = criteria.and(QueryCriteria.VaultQueryCriteria(
+        status = Vault.StateStatus.UNCONSUMED,
+        timeCondition = recorded(ColumnPredicate.BinaryComparison(BinaryComparisonOperator.LESS_THAN_OR_EQUAL, cursor.asOf))
+    ))
+
+    override fun write(output: OutputStream) {
+        jsonFactory.createGenerator(output).use { json ->
+            json.writeStartObject()
+            json.writeArrayFieldStart("states")
+
+            var position = cursor
+            var pagesWritten = 0
+            var next: HoldingsCursor? = null
+            while (true) {
+                val page = nextPage(position)
+                if (page.isEmpty()) {
+                    break
+                }
+                page.forEach { writeState(json, it) }
+                json.flush()
+
+                val last = page.last()
+                position = cursor.copy(recordedTime = last.recordedTime, ref = last.stateAndRef.ref)
+                if (maxPages != null && ++pagesWritten >= maxPages) {
+                    next = position
+                    break
+                }
+            }
+
+            json.writeEndArray()
+            json.writeStringField("next", next?.toString())
+            json.writeEndObject()
+            log.info("Exported holdings from {} to {}", cursor, position)
+        }
+    }
+
+    /**
+     * Returns up to [pageSize] of the goodies that come after [position].
+     */
+    private fun nextPage(position: HoldingsCursor): List<Holding> {
+        val recordedTime = position.recordedTime ?: return query(null, pageSize)
+
+        // Goodies recorded at the same time as the last one exported are either
+        // before or after it, by their state references.
+        val page = query(ColumnPredicate.BinaryComparison(BinaryComparisonOperator.GREATER_THAN_OR_EQUAL, recordedTime), pageSize)
+        val following = page.filter { position.precedes(it) }
+        if (following.isNotEmpty() || page.size < pageSize) {
+            return following
+        }
+
+        // Every goody on the page had already been exported, so continue with the
+        // rest of those recorded at that time, and then with those recorded later.
+        val ties = query(ColumnPredicate.EqualityComparison(EqualityComparisonOperator.EQUAL, recordedTime), MAX_PAGE_SIZE)
+            .filter { position.precedes(it) }
+        return if (ties.isNotEmpty()) {
+            ties.take(pageSize)
+        } else {
+            query(ColumnPredicate.BinaryComparison(BinaryComparisonOperator.GREATER_THAN, recordedTime), pageSize)
+        }
+    }
+
+    private fun query(predicate: ColumnPredicate<Instant>?, size: Int): List<Holding> {
+        val pageCriteria = if (predicate != null) criteria.and(QueryCriteria.VaultQueryCriteria(timeCondition = recorded(predicate))) else criteria
+        val page = rpcOps.vaultQueryBy<Goody.State>(pageCriteria, PageSpecification(DEFAULT_PAGE_NUM, size), sorting)
+        return page.states.mapIndexed { index, state -> Holding(state, page.statesMetadata[index].recordedTime) }
+    }
+
+    private fun recorded(predicate: ColumnPredicate<Instant>) = QueryCriteria.TimeCondition(QueryCriteria.TimeInstantType.RECORDED, predicate)
+
+    private fun HoldingsCursor.precedes(holding: Holding): Boolean {
+        val lastRecordedTime = recordedTime ?: return true
+        val lastRef = ref ?: return true
+        val byTime = holding.recordedTime.compareTo(lastRecordedTime)
+        if (byTime != 0) {
+            return byTime > 0
+        }
+        val ref = holding.stateAndRef.ref
+        val byTransaction = ref.txhash.toString().compareTo(lastRef.txhash.toString())
+        return if (byTransaction != 0) byTransaction > 0 else ref.index > lastRef.index
+    }
+
+    private fun writeState(json: JsonGenerator, holding: Holding) {
+        val stateAndRef = holding.stateAndRef
+        val state = stateAndRef.state.data
+        val issuer = state.amount.token.issuer
+        json.writeStartObject()
+        json.writeStringField("ref", stateAndRef.ref.toString())
+        json.writeStringField("owner", state.owner.nameOrNull()?.toString() ?: state.owner.toString())
+        json.writeStringField("candy", state.amount.token.product.type)
+        json.writeNumberField("quantity", state.amount.quantity)
+        json.writeStringField("issuer", issuer.party.nameOrNull()?.toString() ?: issuer.party.toString())
+        json.writeStringField("issuerRef", issuer.reference.bytes.toHexString())
+        json.writeStringField("notary", stateAndRef.state.notary.name.toString())
+        json.writeStringField("recordedTime", holding.recordedTime.toString())
+        json.writeEndObject()
+    }
+}
+
+/**
+ * Where an export of our holdings continues from, as the text `<asOf>` at
+ * its start, or `<asOf>,<recordedTime>,<txhash>,<index>` after the goody
+ * exported last.
+ */
+data class HoldingsCursor(val asOf: Instant, val recordedTime: Instant? = null, val ref: StateRef? = null) {
+    companion object {
+        fun parse(text: String): HoldingsCursor {
+            val fields = text.split(',')
+            return when (fields.size) {
+                1 -> HoldingsCursor(Instant.parse(fields[0]))
+                4 -> {
+                    val index = fields[3].toIntOrNull() ?: throw IllegalArgumentException("Invalid cursor '$text'")
+                    require(index >= 0) { "Invalid cursor '$text'" }
+                    HoldingsCursor(Instant.parse(fields[0]), Instant.parse(fields[1]), StateRef(SecureHash.parse(fields[2]), index))
+                }
+                else -> throw IllegalArgumentException("Invalid cursor '$text'")
+            }
+        }
+    }
+
+    override fun toString() = if (recordedTime == null || ref == null) "$asOf" else "$asOf,$recordedTime,${ref.txhash},${ref.index}"
+}
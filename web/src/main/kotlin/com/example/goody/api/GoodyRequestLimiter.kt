@@ -0,0 +1,102 @@
+package com.example.goody.api
+
+import com.example.goody.flows.GoodySelectionContentionException
+import net.corda.core.concurrent.CordaFuture
+import net.corda.core.utilities.getOrThrow
+import net.corda.core.utilities.loggerFor
+import java.util.concurrent.Semaphore
+import java.util.concurrent.atomic.AtomicLong
+import javax.ws.rs.BadRequestException
+import javax.ws.rs.container.AsyncResponse
+import javax.ws.rs.core.MediaType.TEXT_PLAIN
+import javax.ws.rs.core.Response
+import javax.ws.rs.core.Response.Status.SERVICE_UNAVAILABLE
+
+/**
+ * Bounds the number of RPC operations that the API has in progress at once.
+ *
+ * Each request is resumed from its [CordaFuture]'s completion callback, so no
+ * thread waits for the node while an operation is in progress. Requests that
+ * arrive once [maxInFlight] operations are already in progress are rejected
+ * with `503 Service Unavailable` rather than queued, as are operations whose
+ * coin selection loses too many races with concurrent flows.
+ */
+class GoodyRequestLimiter(val maxInFlight: Int) {
+    private companion object {
+        private val log = loggerFor<GoodyRequestLimiter>()
+        private const val RETRY_AFTER_SECONDS = 1
+    }
+
+    init {
+        require(maxInFlight > 0) { "maxInFlight must be positive" }
+    }
+
+    private val permits = Semaphore(maxInFlight)
+    private val accepted = AtomicLong()
+    private val rejected = AtomicLong()
+    private val succeeded = AtomicLong()
+    private val failed = AtomicLong()
+
+    /** How many operations are currently in progress. */
+    val inFlight: Int get() = maxInFlight - permits.availablePermits()
+
+    /**
+     * Starts [operation] if there is capacity for it, and completes [async]
+     * with [toResponse] of its result.
+     */
+    fun <T> execute(async: AsyncResponse, operation: () -> CordaFuture<T>, toResponse: (T) -> Response) {
+        if (!permits.tryAcquire()) {
+            rejected.incrementAndGet()
+            log.warn("Rejecting request: {} operations already in progress", maxInFlight)
+            async.resume(serviceUnavailable("Too many requests in progress, please retry later"))
+            return
+        }
+        accepted.incrementAndGet()
+
+        val future = try {
+            operation()
+        } catch (e: Exception) {
+            complete(async, e)
+            return
+        }
+        future.then {
+            val response = try {
+                toResponse(it.getOrThrow())
+            } catch (e: Exception) {
+                complete(async, e)
+                return@then
+            }
+            succeeded.incrementAndGet()
+            permits.release()
+            async.resume(response)
+        }
+    }
+
+    private fun complete(async: AsyncResponse, error: Exception) {
+        failed.incrementAndGet()
+        permits.release()
+        if (error is GoodySelectionContentionException) {
+            async.resume(serviceUnavailable(error.message ?: "Goodies are in use by other requests, please retry later"))
+        } else {
+            async.resume(BadRequestException(error.message))
+        }
+    }
+
+    private fun serviceUnavailable(message: String): Response {
+        return Response.status(SERVICE_UNAVAILABLE)
+            .header("Retry-After", RETRY_AFTER_SECONDS)
+            .type(TEXT_PLAIN)
+            .entity(message)
+            .build()
+    }
+
+    /** The limiter's counters, for monitoring. */
+    fun stats(): Map<String, Long> = mapOf(
+        "maxInFlight" to maxInFlight.toLong(),
+        "inFlight" to inFlight.toLong(),
+        "accepted" to accepted.get(),
+        "rejected" to rejected.get(),
+        "succeeded" to succeeded.get(),
+        "failed" to failed.get()
+    )
+}
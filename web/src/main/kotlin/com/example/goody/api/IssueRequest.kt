@@ -1,5 +1,6 @@
 package com.example.goody.api
 
+import com.example.goody.GoodyDenominations
 import com.example.goody.contracts.Candy
 import com.fasterxml.jackson.annotation.JsonProperty
 import net.corda.core.contracts.Amount
@@ -14,5 +15,11 @@ class IssueRequest(
     val issuerReference: OpaqueBytes,
 
     @JsonProperty("notary")
-    val notary: Party?
+    val notary: Party?,
+
+    @JsonProperty("denominations")
+    val denominations: GoodyDenominations.Ladder? = null,
+
+    @JsonProperty("buckets")
+    val buckets: Int? = null
 )
@@ -1,5 +1,6 @@
 package com.example.goody.api
 
+import com.example.goody.GoodySelectionStrategy
 import com.example.goody.contracts.Candy
 import com.fasterxml.jackson.annotation.JsonProperty
 import net.corda.core.contracts.Amount
@@ -10,5 +11,8 @@ class TransferRequest(
     val candy: Amount<Candy>,
 
     @JsonProperty("recipient")
-    val recipient: Party
+    val recipient: Party,
+
+    @JsonProperty("strategy")
+    val strategy: GoodySelectionStrategy? = null
 )